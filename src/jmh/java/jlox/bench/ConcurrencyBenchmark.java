@@ -0,0 +1,68 @@
+package jlox.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+//scripts per second when one compiled script runs on every core at once, either from JMH's own threads
+//or submitted in batches to a LoxExecutor, compare with -t 1 to see how runs scale
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConcurrencyBenchmark {
+
+    private static final int BATCH = 64;
+
+    @Param({ "closures", "strings", "fib" })
+    public String program;
+
+    @Param({ "TREE_WALKER", "BYTECODE_VM", "JIT" })
+    public String engine;
+
+    private Object script;
+    private Object executor;
+
+    @Setup
+    public void setUp() {
+        script = Lox.compile(Lox.runner(engine),Lox.program(program));
+        executor = Lox.executor();
+    }
+
+    @TearDown
+    public void tearDown() {
+        Lox.close(executor);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public boolean shared() {
+        return Lox.runScript(script);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void executor() {
+        CompletableFuture<?>[] runs = new CompletableFuture<?>[BATCH];
+        for(int i = 0; i < BATCH; i++){
+            runs[i] = Lox.submit(executor,script);
+        }
+        CompletableFuture.allOf(runs).join();
+    }
+}
@@ -0,0 +1,55 @@
+package jlox.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+//each corpus program on each engine. execute reuses one resolved tree, so node caches and compiled
+//functions carry over between invocations like they do in a long running program, run starts from source
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EngineBenchmark {
+
+    @Param({ "fib", "loops", "strings", "oop", "closures" })
+    public String program;
+
+    @Param({ "TREE_WALKER", "BYTECODE_VM", "JIT" })
+    public String engine;
+
+    private String source;
+    private List<?> statements;
+    private Object runner;
+
+    @Setup
+    public void setUp() {
+        source = Lox.program(program);
+        statements = Lox.parse(Lox.scanTokens(source));
+        Lox.resolve(statements);
+        runner = Lox.runner(engine);
+    }
+
+    @Benchmark
+    public void execute() {
+        Lox.execute(runner,statements);
+    }
+
+    @Benchmark
+    public void run() {
+        Lox.run(runner,source);
+    }
+}
@@ -0,0 +1,73 @@
+package jlox.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+//the lexer, parser and resolver over each corpus program, every stage gets the previous stage's output
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrontendBenchmark {
+
+    @Param({ "fib", "loops", "strings", "oop", "closures" })
+    public String program;
+
+    private String source;
+    private List<?> tokens;
+    private Object buffer;
+    private List<?> statements;
+
+    @Setup
+    public void setUp() {
+        source = Lox.program(program);
+        tokens = Lox.scanTokens(source);
+        buffer = Lox.scanBuffer(source);
+        statements = Lox.parse(tokens);
+    }
+
+    @Benchmark
+    public List<?> lex() {
+        return Lox.scanTokens(source);
+    }
+
+    @Benchmark
+    public Object lexToBuffer() {
+        return Lox.scanBuffer(source);
+    }
+
+    @Benchmark
+    public List<?> parse() {
+        return Lox.parse(tokens);
+    }
+
+    @Benchmark
+    public List<?> parseBuffer() {
+        return Lox.parseBuffer(buffer);
+    }
+
+    @Benchmark
+    public List<?> lexAndParse() {
+        return Lox.parseSource(source);
+    }
+
+    @Benchmark
+    public List<?> resolve() {
+        Lox.resolve(statements);
+        return statements;
+    }
+}
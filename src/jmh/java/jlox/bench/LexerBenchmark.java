@@ -0,0 +1,62 @@
+package jlox.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+//lexer throughput on sources dominated by keywords, by identifiers, and on the whole corpus,
+//run with -prof gc to see the bytes allocated per token
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LexerBenchmark {
+
+    private static final String[] CORPUS = { "fib", "loops", "strings", "oop", "closures" };
+
+    @Param({ "keywords", "identifiers", "corpus" })
+    public String input;
+
+    private String source;
+
+    @Setup
+    public void setUp() {
+        StringBuilder builder = new StringBuilder();
+        switch (input) {
+            case "keywords":
+                for(int i = 0; i < 2000; i++){
+                    builder.append("if (true and !false or nil) { return this; } else { while (false) print super.f; }\n");
+                }
+                break;
+            case "identifiers":
+                //prefixes of keywords take the matcher's longest paths before falling back
+                for(int i = 0; i < 2000; i++){
+                    builder.append("var classy = fortune + thistle * variance - orbit / printer + whiled").append(i % 16).append(";\n");
+                }
+                break;
+            default:
+                for(String program: CORPUS){
+                    builder.append(Lox.program(program)).append('\n');
+                }
+        }
+        source = builder.toString();
+    }
+
+    @Benchmark
+    public List<?> lex() {
+        return Lox.scanTokens(source);
+    }
+}
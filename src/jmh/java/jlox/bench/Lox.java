@@ -0,0 +1,211 @@
+package jlox.bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+//the interpreter lives in the default package, which code in a named package can't name
+//and JMH won't generate benchmarks for, so the benchmarks reach it through method handles
+final class Lox {
+
+    static final String CORPUS = "/corpus/";
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final MethodHandle NEW_LEXER = constructor("Lexer",CharSequence.class);
+    private static final MethodHandle SCAN_TOKENS = method("Lexer","scanTokens");
+    private static final MethodHandle SCAN_BUFFER = method("Lexer","scanBuffer");
+    private static final MethodHandle BUFFER_TOKENS = method("TokenBuffer","tokens");
+    private static final MethodHandle NEW_PARSER = constructor("Parser",List.class);
+    private static final MethodHandle NEW_STREAMING_PARSER = constructor("Parser",type("TokenSource"));
+    private static final MethodHandle PARSE = method("Parser","parse");
+    private static final MethodHandle NEW_RESOLVER = constructor("Resolver");
+    private static final MethodHandle RESOLVE = method("Resolver","resolve",List.class);
+    private static final MethodHandle NEW_RUNNER = constructor("LoxRunner");
+    private static final MethodHandle WITH_ENGINE = method("LoxRunner","withEngine",type("LoxRunner$Engine"));
+    private static final MethodHandle WITH_PRINT_HANDLER = method("LoxRunner","withPrintHandler",type("PrintHandler"));
+    private static final MethodHandle NEW_NULL_PRINT_HANDLER = constructor("NullPrintHandler");
+    private static final MethodHandle EXECUTE = method("LoxRunner","execute",List.class);
+    private static final MethodHandle RUN = method("LoxRunner","run",CharSequence.class);
+    private static final MethodHandle COMPILE = method("LoxRunner","compile",CharSequence.class);
+    private static final MethodHandle RUN_SCRIPT = method("CompiledScript","run");
+    private static final MethodHandle NEW_EXECUTOR = constructor("LoxExecutor");
+    private static final MethodHandle SUBMIT = method("LoxExecutor","submit",type("CompiledScript"));
+    private static final MethodHandle CLOSE_EXECUTOR = method("LoxExecutor","close");
+
+    private Lox() {}
+
+    static String program(String name) {
+        try (InputStream in = Lox.class.getResourceAsStream(CORPUS + name + ".lox")) {
+            if(in == null) throw new IllegalArgumentException("No corpus program " + name);
+            return new String(in.readAllBytes(),StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static List<?> scanTokens(String source) {
+        try {
+            return (List<?>) SCAN_TOKENS.invoke(NEW_LEXER.invoke(source));
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    //the tokens as a TokenBuffer, held as an Object since the type can't be named here
+    static Object scanBuffer(String source) {
+        try {
+            return SCAN_BUFFER.invoke(NEW_LEXER.invoke(source));
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static List<?> parseBuffer(Object buffer) {
+        try {
+            return (List<?>) PARSE.invoke(NEW_STREAMING_PARSER.invoke(BUFFER_TOKENS.invoke(buffer)));
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static List<?> parse(List<?> tokens) {
+        try {
+            return (List<?>) PARSE.invoke(NEW_PARSER.invoke(tokens));
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    //parses while lexing, the way LoxRunner does
+    static List<?> parseSource(String source) {
+        try {
+            return (List<?>) PARSE.invoke(NEW_STREAMING_PARSER.invoke(NEW_LEXER.invoke(source)));
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static void resolve(List<?> statements) {
+        try {
+            RESOLVE.invoke(NEW_RESOLVER.invoke(),statements);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    //a LoxRunner on the named engine that discards what the program prints
+    static Object runner(String engine) {
+        try {
+            Object runner = NEW_RUNNER.invoke();
+            WITH_ENGINE.invoke(runner,engineConstant(engine));
+            WITH_PRINT_HANDLER.invoke(runner,NEW_NULL_PRINT_HANDLER.invoke());
+            return runner;
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    //runs statements that were already parsed and resolved
+    static void execute(Object runner, List<?> statements) {
+        try {
+            EXECUTE.invoke(runner,statements);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static void run(Object runner, String source) {
+        try {
+            RUN.invoke(runner,source);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    //a CompiledScript, held as an Object since the type can't be named here
+    static Object compile(Object runner, String source) {
+        try {
+            return COMPILE.invoke(runner,source);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static boolean runScript(Object script) {
+        try {
+            return (boolean) RUN_SCRIPT.invoke(script);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static Object executor() {
+        try {
+            return NEW_EXECUTOR.invoke();
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static CompletableFuture<?> submit(Object executor, Object script) {
+        try {
+            return (CompletableFuture<?>) SUBMIT.invoke(executor,script);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static void close(Object executor) {
+        try {
+            CLOSE_EXECUTOR.invoke(executor);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static Object engineConstant(String engine) {
+        return Enum.valueOf((Class) type("LoxRunner$Engine"),engine);
+    }
+
+    private static Class<?> type(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MethodHandle constructor(String className, Class<?>... parameters) {
+        try {
+            Constructor<?> constructor = type(className).getDeclaredConstructor(parameters);
+            constructor.setAccessible(true);
+            return LOOKUP.unreflectConstructor(constructor);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MethodHandle method(String className, String name, Class<?>... parameters) {
+        try {
+            Method method = type(className).getDeclaredMethod(name,parameters);
+            method.setAccessible(true);
+            return LOOKUP.unreflect(method);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static RuntimeException rethrow(Throwable e) {
+        if(e instanceof RuntimeException) return (RuntimeException) e;
+        if(e instanceof Error) throw (Error) e;
+        return new IllegalStateException(e);
+    }
+}
@@ -0,0 +1,615 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+//resolved programs on disk, one file per distinct source named after its SHA-256, so a warm start skips
+//lexing, parsing and resolving, a file written by another format version or for other content is a miss
+final class AstCache {
+
+    private static final int MAGIC = 0x4a4c4f58; //"JLOX"
+    //bump whenever the tree, the Resolver's annotations or this encoding change
+    static final int FORMAT_VERSION = 7;
+
+    private final Path directory;
+
+    AstCache(Path directory) {
+        this.directory = directory;
+    }
+
+    //the cached program for this source, or null when there is none that can be trusted
+    List<Stmt> load(CharSequence source) {
+        byte[] digest = digest(source);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(fileFor(digest))))) {
+            if(in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) return null;
+            byte[] stored = new byte[digest.length];
+            in.readFully(stored);
+            if(!Arrays.equals(stored,digest)) return null;
+            return new Reader(in).program();
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | RuntimeException e) {
+            //truncated or corrupt, it gets rewritten after this run
+            return null;
+        }
+    }
+
+    //written to a temporary file and moved into place, so readers never see half a program
+    void store(CharSequence source, List<Stmt> statements) {
+        byte[] digest = digest(source);
+        Path target = fileFor(digest);
+        Path temporary = null;
+        try {
+            Files.createDirectories(directory);
+            temporary = Files.createTempFile(directory,target.getFileName().toString(),".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.write(digest);
+                new Writer(out).program(statements);
+            }
+            try {
+                Files.move(temporary,target,StandardCopyOption.ATOMIC_MOVE,StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary,target,StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            //the cache is only ever an optimization, a run doesn't fail because it couldn't be written
+            try {
+                if(temporary != null) Files.deleteIfExists(temporary);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    Path fileFor(byte[] digest) {
+        StringBuilder name = new StringBuilder();
+        for(byte b: digest){
+            name.append(Character.forDigit((b >> 4) & 0xf,16)).append(Character.forDigit(b & 0xf,16));
+        }
+        return directory.resolve(name.append(".jloxc").toString());
+    }
+
+    static byte[] digest(CharSequence source) {
+        try {
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            sha256.update(StandardCharsets.UTF_8.encode(CharBuffer.wrap(source)));
+            return sha256.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is always available",e);
+        }
+    }
+
+    //node tags, in the order of the visitor methods, 0 is a missing node
+    private static final int NULL = 0;
+    private static final int EXPRESSION = 1, PRINT = 2, VAR = 3, IF = 4, BLOCK = 5, WHILE = 6, FUNCTION = 7, RETURN = 8, CLASS = 9;
+    private static final int ASSIGN = 1, BINARY = 2, CALL = 3, GET = 4, GROUPING = 5, LITERAL = 6, LOGICAL = 7, SET = 8,
+            SUPER = 9, THIS = 10, UNARY = 11, VARIABLE = 12;
+    //set on an expression's tag when the Resolver marked it numeric
+    private static final int NUMERIC = 0x80;
+    private static final TokenType[] TOKEN_TYPES = TokenType.values();
+    private static final int NIL = 0, FALSE = 1, TRUE = 2, NUMBER = 3, STRING = 4;
+
+    //the tree goes out depth first, every string once in a table in front of it
+    private static final class Writer implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+        private final DataOutputStream out;
+        private final Map<String,Integer> strings = new HashMap<>();
+        private final List<String> table = new ArrayList<>();
+        //the tree is written behind the string table, so it is collected here first
+        private final ByteArrayOutputStream tree = new ByteArrayOutputStream();
+
+        Writer(DataOutputStream out) {
+            this.out = out;
+        }
+
+        void program(List<Stmt> statements) throws IOException {
+            statements(statements);
+            AstCache.writeInt(out,table.size());
+            for(String string: table){
+                byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+                AstCache.writeInt(out,bytes.length);
+                out.write(bytes);
+            }
+            tree.writeTo(out);
+        }
+
+        private void statements(List<? extends Stmt> statements) {
+            writeInt(statements.size());
+            for(Stmt statement: statements) statement(statement);
+        }
+
+        private void statement(Stmt statement) {
+            if(statement == null){
+                write(NULL);
+            } else {
+                statement.accept(this);
+            }
+        }
+
+        private void expression(Expr expression) {
+            if(expression == null){
+                write(NULL);
+            } else {
+                expression.accept(this);
+            }
+        }
+
+        private void tag(Expr expr, int tag) {
+            write(expr.numeric ? tag | NUMERIC : tag);
+        }
+
+        private void variable(Expr.VariableRef expr) {
+            write(expr.kind);
+            writeInt(expr.slot + 1);
+            write(expr.captured ? 1 : 0);
+        }
+
+        private void token(Token token) {
+            write(token.type.ordinal());
+            string(token.lexeme());
+            writeInt(token.line);
+            writeInt(token.column);
+        }
+
+        private void string(String string) {
+            Integer index = strings.get(string);
+            if(index == null){
+                index = table.size();
+                strings.put(string,index);
+                table.add(string);
+            }
+            writeInt(index);
+        }
+
+        private void write(int b) {
+            tree.write(b);
+        }
+
+        private void writeInt(int value) {
+            try {
+                AstCache.writeInt(tree,value);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr) {
+            tag(expr,ASSIGN);
+            token(expr.name);
+            expression(expr.value);
+            variable(expr);
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr) {
+            tag(expr,BINARY);
+            expression(expr.left);
+            token(expr.operator);
+            expression(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitCallExpr(Expr.Call expr) {
+            tag(expr,CALL);
+            expression(expr.callee);
+            token(expr.paren);
+            writeInt(expr.arguments.size());
+            for(Expr argument: expr.arguments) expression(argument);
+            return null;
+        }
+
+        @Override
+        public Void visitGetExpr(Expr.Get expr) {
+            tag(expr,GET);
+            expression(expr.object);
+            token(expr.name);
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr) {
+            tag(expr,GROUPING);
+            expression(expr.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr) {
+            tag(expr,LITERAL);
+            Object value = expr.value;
+            if(value == null){
+                write(NIL);
+            } else if(value instanceof Boolean){
+                write((boolean) value ? TRUE : FALSE);
+            } else if(value instanceof Double){
+                write(NUMBER);
+                long bits = Double.doubleToRawLongBits((double) value);
+                for(int shift = 56; shift >= 0; shift -= 8) write((int) (bits >>> shift));
+            } else {
+                write(STRING);
+                string((String) value);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpr(Expr.Logical expr) {
+            tag(expr,LOGICAL);
+            expression(expr.left);
+            token(expr.operator);
+            expression(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitSetExpr(Expr.Set expr) {
+            tag(expr,SET);
+            expression(expr.object);
+            token(expr.name);
+            expression(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitSuperExpr(Expr.Super expr) {
+            tag(expr,SUPER);
+            token(expr.keyword);
+            token(expr.method);
+            variable(expr);
+            variable(expr.receiver);
+            return null;
+        }
+
+        @Override
+        public Void visitThisExpr(Expr.This expr) {
+            tag(expr,THIS);
+            token(expr.keyword);
+            variable(expr);
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr) {
+            tag(expr,UNARY);
+            token(expr.operator);
+            expression(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr) {
+            tag(expr,VARIABLE);
+            token(expr.name);
+            variable(expr);
+            return null;
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            write(EXPRESSION);
+            expression(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt) {
+            write(PRINT);
+            expression(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt) {
+            write(VAR);
+            token(stmt.name);
+            expression(stmt.initializer);
+            declaration(stmt);
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt) {
+            write(IF);
+            expression(stmt.condition);
+            statement(stmt.thenBranch);
+            statement(stmt.elseBranch);
+            return null;
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            write(BLOCK);
+            statements(stmt.statements);
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt) {
+            write(WHILE);
+            token(stmt.keyword);
+            expression(stmt.condition);
+            statement(stmt.body);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt) {
+            write(FUNCTION);
+            function(stmt);
+            return null;
+        }
+
+        private void function(Stmt.Function stmt) {
+            token(stmt.name);
+            writeInt(stmt.params.size());
+            for(Token param: stmt.params) token(param);
+            statements(stmt.body);
+            declaration(stmt);
+            writeInt(stmt.frameSize);
+            writeInt(stmt.cells.length);
+            for(int cell: stmt.cells) writeInt(cell);
+            writeInt(stmt.upvalues.size());
+            for(Stmt.Function.Upvalue upvalue: stmt.upvalues){
+                write(upvalue.isLocal ? 1 : 0);
+                writeInt(upvalue.index);
+            }
+        }
+
+        private void declaration(Stmt.Declaration stmt) {
+            //the slot is -1 for a global, which is followed by its slot in the global table
+            writeInt(stmt.slot + 1);
+            if(stmt.slot == Stmt.Declaration.GLOBAL) writeInt(stmt.globalSlot);
+            write(stmt.captured ? 1 : 0);
+        }
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt) {
+            write(RETURN);
+            token(stmt.keyword);
+            expression(stmt.value);
+            return null;
+        }
+
+        @Override
+        public Void visitClassStmt(Stmt.Class stmt) {
+            write(CLASS);
+            token(stmt.name);
+            expression(stmt.superclass);
+            writeInt(stmt.methods.size());
+            for(Stmt.Function method: stmt.methods) function(method);
+            declaration(stmt);
+            writeInt(stmt.superSlot + 1);
+            return null;
+        }
+    }
+
+    private static final class Reader {
+        private final DataInputStream in;
+        private String[] table;
+
+        Reader(DataInputStream in) {
+            this.in = in;
+        }
+
+        List<Stmt> program() throws IOException {
+            table = new String[readInt(in)];
+            for(int i = 0; i < table.length; i++){
+                //the Lexer interns names, so the loaded tree compares them the same way
+                byte[] bytes = new byte[readInt(in)];
+                in.readFully(bytes);
+                table[i] = new String(bytes,StandardCharsets.UTF_8).intern();
+            }
+            return statements();
+        }
+
+        private List<Stmt> statements() throws IOException {
+            int count = readInt(in);
+            List<Stmt> statements = new ArrayList<>(count);
+            for(int i = 0; i < count; i++) statements.add(statement());
+            return statements;
+        }
+
+        private Stmt statement() throws IOException {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case NULL: return null;
+                case EXPRESSION: return new Stmt.Expression(expression());
+                case PRINT: return new Stmt.Print(expression());
+                case VAR: {
+                    Token name = token();
+                    return declaration(new Stmt.Var(name,expression()));
+                }
+                case IF: {
+                    Expr condition = expression();
+                    Stmt thenBranch = statement();
+                    return new Stmt.If(condition,thenBranch,statement());
+                }
+                case BLOCK: return new Stmt.Block(statements());
+                case WHILE: {
+                    Token keyword = token();
+                    Expr condition = expression();
+                    return new Stmt.While(keyword,condition,statement());
+                }
+                case FUNCTION: return function();
+                case RETURN: {
+                    Token keyword = token();
+                    return new Stmt.Return(keyword,expression());
+                }
+                case CLASS: {
+                    Token name = token();
+                    Expr.Variable superclass = (Expr.Variable) expression();
+                    int count = readInt(in);
+                    List<Stmt.Function> methods = new ArrayList<>(count);
+                    for(int i = 0; i < count; i++) methods.add(function());
+                    Stmt.Class klass = declaration(new Stmt.Class(name,superclass,methods));
+                    klass.superSlot = readInt(in) - 1;
+                    return klass;
+                }
+                default: throw new IOException("Unknown statement tag " + tag);
+            }
+        }
+
+        private Stmt.Function function() throws IOException {
+            Token name = token();
+            int count = readInt(in);
+            List<Token> params = new ArrayList<>(count);
+            for(int i = 0; i < count; i++) params.add(token());
+            Stmt.Function function = declaration(new Stmt.Function(name,params,statements()));
+            function.frameSize = readInt(in);
+            int[] cells = new int[readInt(in)];
+            for(int i = 0; i < cells.length; i++) cells[i] = readInt(in);
+            if(cells.length > 0) function.cells = cells;
+            int upvalues = readInt(in);
+            if(upvalues > 0) function.upvalues = new ArrayList<>(upvalues);
+            for(int i = 0; i < upvalues; i++){
+                boolean isLocal = in.readBoolean();
+                function.upvalues.add(new Stmt.Function.Upvalue(isLocal,readInt(in)));
+            }
+            return function;
+        }
+
+        private <T extends Stmt.Declaration> T declaration(T stmt) throws IOException {
+            stmt.slot = readInt(in) - 1;
+            if(stmt.slot == Stmt.Declaration.GLOBAL) stmt.globalSlot = readInt(in);
+            stmt.captured = in.readBoolean();
+            return stmt;
+        }
+
+        private Expr expression() throws IOException {
+            int tag = in.readUnsignedByte();
+            if(tag == NULL) return null;
+            Expr expr = node(tag & ~NUMERIC);
+            expr.numeric = (tag & NUMERIC) != 0;
+            return expr;
+        }
+
+        private Expr node(int tag) throws IOException {
+            switch (tag) {
+                case ASSIGN: {
+                    Token name = token();
+                    return variable(new Expr.Assign(name,expression()));
+                }
+                case BINARY: {
+                    Expr left = expression();
+                    Token operator = token();
+                    return new Expr.Binary(left,operator,expression());
+                }
+                case CALL: {
+                    Expr callee = expression();
+                    Token paren = token();
+                    int count = readInt(in);
+                    List<Expr> arguments = new ArrayList<>(count);
+                    for(int i = 0; i < count; i++) arguments.add(expression());
+                    return new Expr.Call(callee,paren,arguments);
+                }
+                case GET: {
+                    Expr object = expression();
+                    return new Expr.Get(object,token());
+                }
+                case GROUPING: return new Expr.Grouping(expression());
+                case LITERAL: return new Expr.Literal(literal());
+                case LOGICAL: {
+                    Expr left = expression();
+                    Token operator = token();
+                    return new Expr.Logical(left,operator,expression());
+                }
+                case SET: {
+                    Expr object = expression();
+                    Token name = token();
+                    return new Expr.Set(object,name,expression());
+                }
+                case SUPER: {
+                    Token keyword = token();
+                    Expr.Super expr = new Expr.Super(keyword,token());
+                    //name ids belong to this process, so they are looked up again rather than stored
+                    expr.methodId = Names.idOf(expr.method.lexeme());
+                    variable(expr);
+                    variable(expr.receiver);
+                    return expr;
+                }
+                case THIS: {
+                    Expr.This expr = new Expr.This(token());
+                    return variable(expr);
+                }
+                case UNARY: {
+                    Token operator = token();
+                    return new Expr.Unary(operator,expression());
+                }
+                case VARIABLE: {
+                    Expr.Variable expr = new Expr.Variable(token());
+                    return variable(expr);
+                }
+                default: throw new IOException("Unknown expression tag " + tag);
+            }
+        }
+
+        private Expr variable(Expr.VariableRef expr) throws IOException {
+            expr.kind = in.readUnsignedByte();
+            expr.slot = readInt(in) - 1;
+            expr.captured = in.readBoolean();
+            return expr;
+        }
+
+        private Object literal() throws IOException {
+            int kind = in.readUnsignedByte();
+            switch (kind) {
+                case NIL: return null;
+                case FALSE: return false;
+                case TRUE: return true;
+                case NUMBER: return in.readDouble();
+                case STRING: return table[readInt(in)];
+                default: throw new IOException("Unknown literal kind " + kind);
+            }
+        }
+
+        private Token token() throws IOException {
+            TokenType type = TOKEN_TYPES[in.readUnsignedByte()];
+            String lexeme = table[readInt(in)];
+            int line = readInt(in);
+            int column = readInt(in);
+            return new Token(type,lexeme,0,lexeme.length(),lexeme,null,line,column);
+        }
+    }
+
+    //non-negative ints in 7 bit groups, most of what gets written is small
+    private static void writeInt(OutputStream out, int value) throws IOException {
+        while((value & ~0x7f) != 0){
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readInt(InputStream in) throws IOException {
+        int value = 0;
+        for(int shift = 0; shift < 35; shift += 7){
+            int b = in.read();
+            if(b < 0) throw new IOException("Truncated cache file");
+            value |= (b & 0x7f) << shift;
+            if((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Malformed int in cache file");
+    }
+
+}
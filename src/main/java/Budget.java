@@ -0,0 +1,42 @@
+//limits on what a single run may do, shared by every run of a script, each run keeps count in a Sandbox of its own
+final class Budget {
+
+    static final long UNLIMITED = Long.MAX_VALUE;
+    static final Budget NONE = new Budget(UNLIMITED,UNLIMITED,UNLIMITED,UNLIMITED);
+
+    //loop iterations plus calls
+    final long steps;
+    final long callDepth;
+    //instances, classes, closures and concatenated strings
+    final long allocations;
+    final long timeNanos;
+
+    private Budget(long steps, long callDepth, long allocations, long timeNanos) {
+        this.steps = steps;
+        this.callDepth = callDepth;
+        this.allocations = allocations;
+        this.timeNanos = timeNanos;
+    }
+
+    Budget withSteps(long steps) {
+        return new Budget(steps,callDepth,allocations,timeNanos);
+    }
+
+    Budget withCallDepth(long callDepth) {
+        return new Budget(steps,callDepth,allocations,timeNanos);
+    }
+
+    Budget withAllocations(long allocations) {
+        return new Budget(steps,callDepth,allocations,timeNanos);
+    }
+
+    Budget withTimeNanos(long timeNanos) {
+        return new Budget(steps,callDepth,allocations,timeNanos);
+    }
+
+    //null when nothing is limited, which is what keeps the checks off the engines' fast paths
+    Sandbox start() {
+        if(steps == UNLIMITED && callDepth == UNLIMITED && allocations == UNLIMITED && timeNanos == UNLIMITED) return null;
+        return new Sandbox(this);
+    }
+}
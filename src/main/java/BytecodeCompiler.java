@@ -0,0 +1,583 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+//compiles a resolved program into bytecode for the VM,
+//the Resolver has already reported the static errors so this only lays out variables
+public class BytecodeCompiler implements Expr.Visitor<Void>,Stmt.Visitor<Void> {
+
+    private static final int MAX_U16 = 0xffff;
+
+    private enum FunctionType {
+        SCRIPT,
+        FUNCTION,
+        INITIALIZER,
+        METHOD
+    }
+
+    private static class Local {
+        final String name;
+        final int depth;
+        boolean isCaptured = false;
+
+        Local(String name, int depth) {
+            this.name = name;
+            this.depth = depth;
+        }
+    }
+
+    private static class Upvalue {
+        final int index;
+        final boolean isLocal;
+
+        Upvalue(int index, boolean isLocal) {
+            this.index = index;
+            this.isLocal = isLocal;
+        }
+    }
+
+    private static class FunctionState {
+        final FunctionState enclosing;
+        final VmFunction function;
+        final FunctionType type;
+        final List<Local> locals = new ArrayList<>();
+        final List<Upvalue> upvalues = new ArrayList<>();
+        int scopeDepth = 0;
+        int stackDepth = 0;
+
+        FunctionState(FunctionState enclosing, VmFunction function, FunctionType type) {
+            this.enclosing = enclosing;
+            this.function = function;
+            this.type = type;
+        }
+    }
+
+    private final LoxErrorHandler errorHandler;
+    private final Map<String,Integer> globalIndices = new HashMap<>();
+    private final List<String> globalNames = new ArrayList<>();
+    private FunctionState current;
+    //the token the instructions being emitted belong to
+    private Token token;
+
+    BytecodeCompiler(LoxErrorHandler errorHandler) {
+        this.errorHandler = errorHandler;
+    }
+
+    VmFunction compile(List<Stmt> statements) {
+        token = new Token(TokenType.EOF,"",null,1);
+        beginFunction(new VmFunction(null),FunctionType.SCRIPT);
+        for(Stmt s: statements){
+            compile(s);
+        }
+        return endFunction();
+    }
+
+    //every global the program mentions, in the order of their indices
+    String[] globalNames() {
+        return globalNames.toArray(new String[0]);
+    }
+
+    private void compile(Stmt stmt) {
+        //statements that failed to parse are left as null by the Parser
+        if(stmt != null) stmt.accept(this);
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    private void beginFunction(VmFunction function, FunctionType type) {
+        current = new FunctionState(current,function,type);
+        //slot zero holds the receiver inside methods and the callee otherwise
+        current.locals.add(new Local(type == FunctionType.FUNCTION || type == FunctionType.SCRIPT ? "" : "this",0));
+        adjustStack(1);
+    }
+
+    private VmFunction endFunction() {
+        emitReturn();
+        VmFunction function = current.function;
+        function.upvalueCount = current.upvalues.size();
+        function.chunk.finish();
+        current = current.enclosing;
+        return function;
+    }
+
+    private void emitReturn() {
+        if(current.type == FunctionType.INITIALIZER){
+            emitOp(OpCode.GET_LOCAL);
+            emitShort(0);
+        } else {
+            emitOp(OpCode.NIL);
+        }
+        emitOp(OpCode.RETURN);
+    }
+
+    private void beginScope() {
+        current.scopeDepth++;
+    }
+
+    private void endScope() {
+        current.scopeDepth--;
+        List<Local> locals = current.locals;
+        while(!locals.isEmpty() && locals.get(locals.size() - 1).depth > current.scopeDepth){
+            if(locals.get(locals.size() - 1).isCaptured){
+                emitOp(OpCode.CLOSE_UPVALUE);
+            } else {
+                emitOp(OpCode.POP);
+            }
+            locals.remove(locals.size() - 1);
+        }
+    }
+
+    //makes the value on top of the stack the variable, either a new local or a global
+    private void defineVariable(String name) {
+        if(current.scopeDepth > 0){
+            current.locals.add(new Local(name,current.scopeDepth));
+            return;
+        }
+        emitOp(OpCode.DEFINE_GLOBAL);
+        emitShort(globalIndex(name));
+    }
+
+    private int globalIndex(String name) {
+        Integer index = globalIndices.get(name);
+        if(index == null){
+            index = globalNames.size();
+            if(index > MAX_U16){
+                errorHandler.error(token,"Too many global variables.");
+            }
+            globalNames.add(name);
+            globalIndices.put(name,index);
+        }
+        return index;
+    }
+
+    private int resolveLocal(FunctionState state, String name) {
+        for(int i = state.locals.size() - 1; i >= 0; i--){
+            if(state.locals.get(i).name.equals(name)) return i;
+        }
+        return -1;
+    }
+
+    private int resolveUpvalue(FunctionState state, String name) {
+        if(state.enclosing == null) return -1;
+
+        int local = resolveLocal(state.enclosing,name);
+        if(local != -1){
+            state.enclosing.locals.get(local).isCaptured = true;
+            return addUpvalue(state,local,true);
+        }
+
+        int upvalue = resolveUpvalue(state.enclosing,name);
+        if(upvalue != -1){
+            return addUpvalue(state,upvalue,false);
+        }
+        return -1;
+    }
+
+    private int addUpvalue(FunctionState state, int index, boolean isLocal) {
+        for(int i = 0; i < state.upvalues.size(); i++){
+            Upvalue upvalue = state.upvalues.get(i);
+            if(upvalue.index == index && upvalue.isLocal == isLocal) return i;
+        }
+        state.upvalues.add(new Upvalue(index,isLocal));
+        return state.upvalues.size() - 1;
+    }
+
+    private void namedVariable(String name, boolean assign) {
+        byte get;
+        byte set;
+        int arg = resolveLocal(current,name);
+        if(arg != -1){
+            get = OpCode.GET_LOCAL;
+            set = OpCode.SET_LOCAL;
+        } else if((arg = resolveUpvalue(current,name)) != -1){
+            get = OpCode.GET_UPVALUE;
+            set = OpCode.SET_UPVALUE;
+        } else {
+            arg = globalIndex(name);
+            get = OpCode.GET_GLOBAL;
+            set = OpCode.SET_GLOBAL;
+        }
+        emitOp(assign ? set : get);
+        emitShort(arg);
+    }
+
+    private void function(Stmt.Function stmt, FunctionType type) {
+        VmFunction function = new VmFunction(stmt.name.lexeme());
+        function.arity = stmt.params.size();
+        beginFunction(function,type);
+        beginScope();
+        for(Token param: stmt.params){
+            current.locals.add(new Local(param.lexeme(),current.scopeDepth));
+            adjustStack(1);
+        }
+        for(Stmt s: stmt.body){
+            compile(s);
+        }
+        //no endScope, returning discards the whole frame
+        FunctionState compiled = current;
+        endFunction();
+
+        token = stmt.name;
+        emitOp(OpCode.CLOSURE);
+        emitShort(makeConstant(function));
+        for(Upvalue upvalue: compiled.upvalues){
+            emitByte(upvalue.isLocal ? 1 : 0);
+            emitShort(upvalue.index);
+        }
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        compile(stmt.expression);
+        emitOp(OpCode.POP);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.expression);
+        emitOp(OpCode.PRINT);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if(stmt.initializer != null){
+            compile(stmt.initializer);
+        } else {
+            emitOp(OpCode.NIL);
+        }
+        token = stmt.name;
+        defineVariable(stmt.name.lexeme());
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        compile(stmt.condition);
+        int thenJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emitOp(OpCode.POP);
+        compile(stmt.thenBranch);
+        int elseJump = emitJump(OpCode.JUMP);
+
+        patchJump(thenJump);
+        //the jump got here with the condition still on the stack
+        adjustStack(1);
+        emitOp(OpCode.POP);
+        if(stmt.elseBranch != null) compile(stmt.elseBranch);
+        patchJump(elseJump);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        beginScope();
+        for(Stmt s: stmt.statements){
+            compile(s);
+        }
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        int loopStart = current.function.chunk.count;
+        compile(stmt.condition);
+        int exitJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emitOp(OpCode.POP);
+        compile(stmt.body);
+        emitLoop(loopStart);
+
+        patchJump(exitJump);
+        adjustStack(1);
+        emitOp(OpCode.POP);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        //declared before the body is compiled so the function can call itself
+        if(current.scopeDepth > 0){
+            current.locals.add(new Local(stmt.name.lexeme(),current.scopeDepth));
+            function(stmt,FunctionType.FUNCTION);
+            return null;
+        }
+        function(stmt,FunctionType.FUNCTION);
+        defineVariable(stmt.name.lexeme());
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        token = stmt.keyword;
+        if(stmt.value == null){
+            emitReturn();
+            return null;
+        }
+        compile(stmt.value);
+        token = stmt.keyword;
+        emitOp(OpCode.RETURN);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        token = stmt.name;
+        String className = stmt.name.lexeme();
+        emitOp(OpCode.CLASS);
+        emitShort(makeConstant(className));
+        defineVariable(className);
+
+        if(stmt.superclass != null){
+            compile(stmt.superclass);
+            beginScope();
+            current.locals.add(new Local("super",current.scopeDepth));
+            token = stmt.superclass.name;
+            namedVariable(className,false);
+            emitOp(OpCode.INHERIT);
+        }
+
+        namedVariable(className,false);
+        for(Stmt.Function method: stmt.methods){
+            FunctionType type = method.name.lexeme().equals("init") ? FunctionType.INITIALIZER : FunctionType.METHOD;
+            function(method,type);
+            emitOp(OpCode.METHOD);
+            emitShort(makeConstant(method.name.lexeme()));
+        }
+        emitOp(OpCode.POP);
+
+        if(stmt.superclass != null) endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compile(expr.value);
+        token = expr.name;
+        namedVariable(expr.name.lexeme(),true);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        compile(expr.left);
+        compile(expr.right);
+        token = expr.operator;
+        switch (expr.operator.type) {
+            case PLUS: emitOp(OpCode.ADD); break;
+            case MINUS: emitOp(OpCode.SUBTRACT); break;
+            case STAR: emitOp(OpCode.MULTIPLY); break;
+            case SLASH: emitOp(OpCode.DIVIDE); break;
+            case GREATER: emitOp(OpCode.GREATER); break;
+            case GREATER_EQUAL: emitOp(OpCode.GREATER_EQUAL); break;
+            case LESS: emitOp(OpCode.LESS); break;
+            case LESS_EQUAL: emitOp(OpCode.LESS_EQUAL); break;
+            case EQUAL_EQUAL: emitOp(OpCode.EQUAL); break;
+            case BANG_EQUAL: emitOp(OpCode.NOT_EQUAL); break;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        if(expr.callee instanceof Expr.Get){
+            //obj.method(args) calls the method without creating a bound method first
+            Expr.Get get = (Expr.Get) expr.callee;
+            compile(get.object);
+            compileArguments(expr);
+            token = get.name;
+            emitOp(OpCode.INVOKE);
+            emitShort(makeConstant(get.name.lexeme()));
+            emitInvokeArgumentCount(expr);
+            return null;
+        }
+        if(expr.callee instanceof Expr.Super){
+            Expr.Super superExpr = (Expr.Super) expr.callee;
+            token = superExpr.keyword;
+            namedVariable("this",false);
+            compileArguments(expr);
+            token = superExpr.keyword;
+            namedVariable("super",false);
+            token = superExpr.method;
+            emitOp(OpCode.SUPER_INVOKE);
+            emitShort(makeConstant(superExpr.method.lexeme()));
+            emitInvokeArgumentCount(expr);
+            return null;
+        }
+
+        compile(expr.callee);
+        compileArguments(expr);
+        token = expr.paren;
+        emitOp(OpCode.CALL);
+        emitByte(expr.arguments.size());
+        adjustStack(-expr.arguments.size());
+        return null;
+    }
+
+    private void compileArguments(Expr.Call expr) {
+        for(Expr argument: expr.arguments){
+            compile(argument);
+        }
+    }
+
+    private void emitInvokeArgumentCount(Expr.Call expr) {
+        //arity errors point at the closing paren like the ones of plain calls
+        token = expr.paren;
+        emitByte(expr.arguments.size());
+        adjustStack(-expr.arguments.size());
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        compile(expr.object);
+        token = expr.name;
+        emitOp(OpCode.GET_PROPERTY);
+        emitShort(makeConstant(expr.name.lexeme()));
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if(expr.value == null){
+            emitOp(OpCode.NIL);
+        } else if(expr.value.equals(true)){
+            emitOp(OpCode.TRUE);
+        } else if(expr.value.equals(false)){
+            emitOp(OpCode.FALSE);
+        } else {
+            emitOp(OpCode.CONSTANT);
+            emitShort(makeConstant(expr.value));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        compile(expr.left);
+        token = expr.operator;
+        if(expr.operator.type == TokenType.OR){
+            int elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+            int endJump = emitJump(OpCode.JUMP);
+            patchJump(elseJump);
+            emitOp(OpCode.POP);
+            compile(expr.right);
+            patchJump(endJump);
+        } else {
+            int endJump = emitJump(OpCode.JUMP_IF_FALSE);
+            emitOp(OpCode.POP);
+            compile(expr.right);
+            patchJump(endJump);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        compile(expr.object);
+        compile(expr.value);
+        token = expr.name;
+        emitOp(OpCode.SET_PROPERTY);
+        emitShort(makeConstant(expr.name.lexeme()));
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        token = expr.keyword;
+        namedVariable("this",false);
+        namedVariable("super",false);
+        token = expr.method;
+        emitOp(OpCode.GET_SUPER);
+        emitShort(makeConstant(expr.method.lexeme()));
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        token = expr.keyword;
+        namedVariable("this",false);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.right);
+        token = expr.operator;
+        switch (expr.operator.type) {
+            case BANG: emitOp(OpCode.NOT); break;
+            case MINUS: emitOp(OpCode.NEGATE); break;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        token = expr.name;
+        namedVariable(expr.name.lexeme(),false);
+        return null;
+    }
+
+    private int makeConstant(Object value) {
+        int index = current.function.chunk.addConstant(value);
+        if(index > MAX_U16){
+            errorHandler.error(token,"Too many constants in one chunk.");
+            return 0;
+        }
+        return index;
+    }
+
+    private void emitByte(int b) {
+        current.function.chunk.write(b,token);
+    }
+
+    private void emitShort(int value) {
+        emitByte((value >> 8) & 0xff);
+        emitByte(value & 0xff);
+    }
+
+    private void emitOp(byte op) {
+        emitByte(op);
+        adjustStack(OpCode.STACK_EFFECT[op]);
+    }
+
+    private void adjustStack(int effect) {
+        current.stackDepth += effect;
+        if(current.stackDepth > current.function.maxStack){
+            current.function.maxStack = current.stackDepth;
+        }
+    }
+
+    private int emitJump(byte op) {
+        emitOp(op);
+        emitShort(MAX_U16);
+        return current.function.chunk.count - 2;
+    }
+
+    private void patchJump(int offset) {
+        Chunk chunk = current.function.chunk;
+        int jump = chunk.count - offset - 2;
+        if(jump > MAX_U16){
+            errorHandler.error(token,"Too much code to jump over.");
+        }
+        chunk.code[offset] = (byte) ((jump >> 8) & 0xff);
+        chunk.code[offset + 1] = (byte) (jump & 0xff);
+    }
+
+    private void emitLoop(int loopStart) {
+        emitOp(OpCode.LOOP);
+        int offset = current.function.chunk.count - loopStart + 2;
+        if(offset > MAX_U16){
+            errorHandler.error(token,"Loop body too large.");
+        }
+        emitShort(offset);
+    }
+}
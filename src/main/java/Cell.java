@@ -0,0 +1,12 @@
+//a variable a closure captures, shared by the frame that declared it and every closure over it.
+//variables no closure captures stay plain values in their frame
+final class Cell {
+
+    static final Cell[] EMPTY = new Cell[0];
+
+    Object value;
+
+    Cell(Object value) {
+        this.value = value;
+    }
+}
@@ -0,0 +1,51 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+//a compiled sequence of instructions with its constant pool
+public class Chunk {
+
+    byte[] code = new byte[16];
+    //the token each byte was compiled from, used to report runtime errors
+    Token[] tokens = new Token[16];
+    int count = 0;
+    Object[] constants;
+
+    private final List<Object> constantPool = new ArrayList<>();
+    private final Map<Object,Integer> constantIndices = new HashMap<>();
+
+    void write(int b, Token token) {
+        if(count == code.length){
+            code = Arrays.copyOf(code,count * 2);
+            tokens = Arrays.copyOf(tokens,count * 2);
+        }
+        code[count] = (byte) b;
+        tokens[count] = token;
+        count++;
+    }
+
+    //numbers and strings are deduplicated, functions always get their own entry
+    int addConstant(Object value) {
+        boolean shareable = value instanceof Double || value instanceof String;
+        if(shareable){
+            Integer index = constantIndices.get(value);
+            if(index != null) return index;
+        }
+        constantPool.add(value);
+        int index = constantPool.size() - 1;
+        if(shareable) constantIndices.put(value,index);
+        return index;
+    }
+
+    int readShort(int offset) {
+        return ((code[offset] & 0xff) << 8) | (code[offset + 1] & 0xff);
+    }
+
+    void finish() {
+        code = Arrays.copyOf(code,count);
+        tokens = Arrays.copyOf(tokens,count);
+        constants = constantPool.toArray();
+    }
+}
@@ -0,0 +1,16 @@
+import java.util.Collections;
+import java.util.List;
+
+//thrown by LoxRunner.compile when the front end reported errors, they have already gone to the error handler
+public class CompileError extends RuntimeException {
+    private final List<String> errors;
+
+    CompileError(List<String> errors) {
+        super(errors.size() == 1 ? errors.get(0) : errors.size() + " errors, the first: " + errors.get(0));
+        this.errors = Collections.unmodifiableList(errors);
+    }
+
+    public List<String> getErrors() {
+        return errors;
+    }
+}
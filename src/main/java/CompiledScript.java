@@ -0,0 +1,59 @@
+import java.util.List;
+
+//a program that has been through the front end once, it can be run any number of times and on any number
+//of threads at once, every run gets fresh globals so one run never sees what another defined.
+//the tree, its bytecode and its JIT code are shared, everything a run creates is its own. the only state
+//runs share is what the tree learns while running, type specializations, call targets, inline caches
+//and JIT code, and every engine treats that as a hint it checks before relying on it
+public final class CompiledScript {
+
+    private final List<Stmt> statements;
+    private final LoxRunner.Engine engine;
+    private final int jitThreshold;
+    private final LoxErrorHandler errorHandler;
+    private final PrintHandler printHandler;
+    private final Budget budget;
+    //the bytecode engine compiles once as well, a run only needs a new VM
+    private final VmFunction script;
+    private final String[] globalNames;
+
+    CompiledScript(List<Stmt> statements, LoxRunner.Engine engine, int jitThreshold, Budget budget, LoxErrorHandler errorHandler, PrintHandler printHandler) {
+        this.statements = statements;
+        this.engine = engine;
+        this.jitThreshold = jitThreshold;
+        this.errorHandler = errorHandler;
+        this.printHandler = printHandler;
+        this.budget = budget;
+        if(engine == LoxRunner.Engine.BYTECODE_VM){
+            BytecodeCompiler compiler = new BytecodeCompiler(errorHandler);
+            this.script = compiler.compile(statements);
+            this.globalNames = compiler.globalNames();
+        } else {
+            this.script = null;
+            this.globalNames = null;
+        }
+    }
+
+    //true when the script ran to the end, a runtime error goes to the error handler and makes it false
+    public boolean run() {
+        return run(printHandler);
+    }
+
+    //for printing somewhere else on this run only, like a response being built
+    public boolean run(PrintHandler printHandler) {
+        return run(printHandler,errorHandler);
+    }
+
+    //handlers of its own keep one run's output and errors apart from every other run's
+    public boolean run(PrintHandler printHandler, LoxErrorHandler errorHandler) {
+        if(engine == LoxRunner.Engine.BYTECODE_VM){
+            VM vm = new VM(errorHandler,printHandler);
+            vm.sandbox = budget.start();
+            return vm.interpret(script,globalNames);
+        }
+        Interpreter interpreter = new Interpreter(errorHandler,printHandler);
+        if(engine == LoxRunner.Engine.JIT) interpreter.jitThreshold = jitThreshold;
+        interpreter.sandbox = budget.start();
+        return interpreter.interpret(statements);
+    }
+}
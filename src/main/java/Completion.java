@@ -0,0 +1,25 @@
+//how a statement finished executing. statements that run to their end complete NORMAL,
+//the others are handed up through the enclosing statements until one of them consumes them
+final class Completion {
+
+    enum Kind {
+        NORMAL,
+        RETURN
+    }
+
+    static final Completion NORMAL = new Completion(Kind.NORMAL,null);
+    private static final Completion RETURN_NIL = new Completion(Kind.RETURN,null);
+
+    final Kind kind;
+    //the returned value
+    final Object value;
+
+    private Completion(Kind kind, Object value) {
+        this.kind = kind;
+        this.value = value;
+    }
+
+    static Completion returning(Object value) {
+        return value == null ? RETURN_NIL : new Completion(Kind.RETURN,value);
+    }
+}
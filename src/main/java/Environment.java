@@ -1,61 +1,43 @@
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.List;
 
+//the global variables, locals live in the frame of the function call declaring them
 public class Environment {
 
-    final Environment enclosing;
-    private final Map<String,Object> values = new HashMap<>();
+    //the natives take the first slots of every program's global table, in this order
+    static final List<String> NATIVES = List.of("clock");
 
-    Environment() {
-        enclosing = null;
-    }
-
-    Environment(Environment enclosing) {
-        this.enclosing = enclosing;
-    }
+    private static final Object[] EMPTY_SLOTS = new Object[0];
+    //a global slot whose name hasn't been defined in this run, yet or at all
+    private static final Object UNDEFINED = new Object();
 
-    void define(String name,Object value) {
-        values.put(name,value);
-    }
+    //a global sits in the slot the Resolver gave its name in the program, so the table only grows
+    //as far as the program's own globals
+    private Object[] slots = EMPTY_SLOTS;
 
-    Object get(Token name){
-        if(values.containsKey(name.lexeme)){
-            return values.get(name.lexeme);
+    void defineGlobal(int slot, Object value) {
+        if(slot >= slots.length){
+            Object[] grown = new Object[Math.max(slot + 1,slots.length * 2)];
+            System.arraycopy(slots,0,grown,0,slots.length);
+            Arrays.fill(grown,slots.length,grown.length,UNDEFINED);
+            slots = grown;
         }
-        //this is a recursive call
-        if(enclosing != null) return enclosing.get(name);
-
-        throw new RuntimeError(name,"Undefined variable '" + name.lexeme + "'.");
-    }
-
-    Object getAt(int distance, String name) {
-        return ancestor(distance).values.get(name);
+        slots[slot] = value;
     }
 
-    Environment ancestor(int distance) {
-        Environment environment = this;
-        for (int i = 0; i < distance; i++) {
-            environment = environment.enclosing;
+    Object getGlobal(int slot, Token name){
+        if(slot < slots.length){
+            Object value = slots[slot];
+            if(value != UNDEFINED) return value;
         }
-
-        return environment;
+        throw new RuntimeError(name,"Undefined variable '" + name.lexeme() + "'.");
     }
 
-    void assign(Token name, Object value) {
-        if(values.containsKey(name.lexeme)){
-            values.put(name.lexeme,value);
-            return;
-        }
-        if(enclosing != null ){
-            //not sure i understand this
-            enclosing.assign(name,value);
+    void assignGlobal(int slot, Token name, Object value) {
+        if(slot < slots.length && slots[slot] != UNDEFINED){
+            slots[slot] = value;
             return;
         }
-
-        throw new RuntimeError(name,"Undefined variable '" + name.lexeme + "'.");
-    }
-
-    public void assignAt(Integer distance, Token name, Object value) {
-        ancestor(distance).values.put(name.lexeme,value);
+        throw new RuntimeError(name,"Undefined variable '" + name.lexeme() + "'.");
     }
 }
@@ -17,8 +17,23 @@ abstract class Expr {
     }
 
     // Nested Expr classes here...
+//> expr-variable-ref
+    //nodes that read or write a variable, the Resolver fills in where it lives
+    abstract static class VariableRef extends Expr {
+        static final int LOCAL = 0;
+        static final int UPVALUE = 1;
+        static final int GLOBAL = 2;
+
+        //LOCAL when the variable is in the frame of the function referring to it, slot is then its frame slot,
+        //UPVALUE when it is a local of an enclosing function, slot is then the index of the closure's cell
+        int kind = GLOBAL;
+        int slot = -1;
+        //a local that a closure captured, its slot holds the Cell rather than the value
+        boolean captured = false;
+    }
+    //< expr-variable-ref
 //> expr-assign
-    static class Assign extends Expr {
+    static class Assign extends VariableRef {
         Assign(Token name, Expr value) {
             this.name = name;
             this.value = value;
@@ -49,6 +64,8 @@ abstract class Expr {
         final Expr left;
         final Token operator;
         final Expr right;
+        //the operand types seen so far, the Interpreter rewrites it as it executes the node
+        byte specialization = UNINITIALIZED;
     }
     //< expr-binary
 //> expr-call
@@ -67,6 +84,10 @@ abstract class Expr {
         final Expr callee;
         final Token paren;
         final List<Expr> arguments;
+        //the only function this site has called, null until the first call and once it sees another one.
+        //volatile since runs on other threads take the direct call it publishes
+        volatile Stmt.Function target;
+        byte specialization = UNINITIALIZED;
     }
     //< expr-call
 //> expr-get
@@ -83,6 +104,8 @@ abstract class Expr {
 
         final Expr object;
         final Token name;
+        //where the property was found for the instance shapes this site has seen
+        final InlineCache cache = new InlineCache();
     }
     //< expr-get
 //> expr-grouping
@@ -147,13 +170,16 @@ abstract class Expr {
         final Expr object;
         final Token name;
         final Expr value;
+        //where the property was found for the instance shapes this site has seen
+        final InlineCache cache = new InlineCache();
     }
     //< expr-set
 //> expr-super
-    static class Super extends Expr {
+    static class Super extends VariableRef {
         Super(Token keyword, Token method) {
             this.keyword = keyword;
             this.method = method;
+            this.receiver = new This(keyword);
         }
 
         @Override
@@ -163,10 +189,14 @@ abstract class Expr {
 
         final Token keyword;
         final Token method;
+        //the this the method gets bound to, resolved like any other this
+        final This receiver;
+        //the interned id of the method's name, set by the Resolver
+        int methodId = -1;
     }
     //< expr-super
 //> expr-this
-    static class This extends Expr {
+    static class This extends VariableRef {
         This(Token keyword) {
             this.keyword = keyword;
         }
@@ -196,7 +226,7 @@ abstract class Expr {
     }
     //< expr-unary
 //> expr-variable
-    static class Variable extends Expr {
+    static class Variable extends VariableRef {
         Variable(Token name) {
             this.name = name;
         }
@@ -210,6 +240,18 @@ abstract class Expr {
     }
 //< expr-variable
 
+    //set by the Resolver when the expression can only evaluate to a number
+    boolean numeric;
+
+    //specializations a node moves through, a node that has seen a type it didn't expect goes GENERIC for good.
+    //every run of a compiled script writes them on the same nodes without locking, which is safe since each
+    //specialized path checks the types it relies on and falls back, a lost write only costs a slower path
+    static final byte UNINITIALIZED = 0;
+    static final byte NUMBERS = 1;
+    static final byte STRINGS = 2;
+    static final byte MONOMORPHIC = 3;
+    static final byte GENERIC = 4;
+
     abstract <R> R accept(Visitor<R> visitor);
 }
 //< Appendix II expr
\ No newline at end of file
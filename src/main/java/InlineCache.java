@@ -0,0 +1,90 @@
+//remembers, per property access site, where the property lives for each instance shape the site has seen.
+//a hit is a shape check plus an array load. a full cache drops its oldest shape for the new one: the sites
+//are shared by every run of a script and each run's classes bring new shapes, so the old ones never hit again
+final class InlineCache {
+
+    private static final int MAX_SHAPES = 4;
+    private static final Entry[] EMPTY = new Entry[0];
+
+    private static final class Entry {
+        final Shape shape;
+        //the field's slot, -1 when the property is a method
+        final int slot;
+        final LoxFunction method;
+        //the shape the instance has after the field is set
+        final Shape next;
+
+        Entry(Shape shape, int slot, LoxFunction method, Shape next) {
+            this.shape = shape;
+            this.slot = slot;
+            this.method = method;
+            this.next = next;
+        }
+    }
+
+    //replaced rather than updated so a reader never sees a half written entry
+    private volatile Entry[] entries = EMPTY;
+
+    Object get(LoxInstance instance, Token name) {
+        Entry entry = lookup(instance,name);
+        return entry.method == null ? instance.field(entry.slot) : entry.method.bind(instance);
+    }
+
+    //the unbound method a call through this site runs, null when the property is a field
+    LoxFunction method(LoxInstance instance, Token name) {
+        return lookup(instance,name).method;
+    }
+
+    private Entry lookup(LoxInstance instance, Token name) {
+        Shape shape = instance.shape;
+        for(Entry entry: entries){
+            if(entry.shape == shape) return entry;
+        }
+
+        int slot = shape.slotOf(name.lexeme());
+        LoxFunction method = null;
+        if(slot == -1){
+            method = shape.klass.findMethod(name.lexeme());
+            if(method == null) throw new RuntimeError(name,"Undefined property '" + name.lexeme() + "' .");
+        }
+        Entry entry = new Entry(shape,slot,method,shape);
+        add(entry);
+        return entry;
+    }
+
+    void set(LoxInstance instance, Token name, Object value) {
+        Shape shape = instance.shape;
+        for(Entry entry: entries){
+            if(entry.shape == shape){
+                instance.setField(entry.next,entry.slot,value);
+                return;
+            }
+        }
+
+        Shape next = shape;
+        int slot = shape.slotOf(name.lexeme());
+        if(slot == -1){
+            next = shape.withField(name.lexeme());
+            slot = next.slotOf(name.lexeme());
+        }
+        add(new Entry(shape,slot,null,next));
+        instance.setField(next,slot,value);
+    }
+
+    //whether the site has an entry for shape
+    boolean caches(Shape shape) {
+        for(Entry entry: entries){
+            if(entry.shape == shape) return true;
+        }
+        return false;
+    }
+
+    private void add(Entry entry) {
+        Entry[] current = entries;
+        int kept = Math.min(current.length,MAX_SHAPES - 1);
+        Entry[] next = new Entry[kept + 1];
+        System.arraycopy(current,current.length - kept,next,0,kept);
+        next[kept] = entry;
+        entries = next;
+    }
+}
@@ -1,15 +1,21 @@
 import java.util.*;
 
-public class Interpreter implements Expr.Visitor<Object>,Stmt.Visitor<Void>{
+public class Interpreter implements Expr.Visitor<Object>,Stmt.Visitor<Completion>{
     final Environment globals = new Environment();
-    private Environment environment = globals;
-    private final Map<Expr,Integer> locals = new HashMap<>();
+    //the locals of the function call being run, or of the script's blocks, which grows it as they declare them
+    private Object[] frame = new Object[8];
+    //the cells the closure being run captured
+    private Cell[] upvalues = Cell.EMPTY;
     private final LoxErrorHandler errorHandler;
     private final PrintHandler printHandler;
+    //calls before a function is compiled to JVM bytecode, 0 also compiles the script, negative never compiles
+    int jitThreshold = -1;
+    //the run's budget, null when it has none
+    Sandbox sandbox;
 
 
     void initializeGlobalFunctionsInEnvironment() {
-        globals.define("clock", new LoxCallable() {
+        globals.defineGlobal(Environment.NATIVES.indexOf("clock"), new LoxCallable() {
             @Override
             public Object call(Interpreter interpreter, List<Object> arguments) {
                 return (double) System.currentTimeMillis() / 1000.0;
@@ -38,48 +44,43 @@ public class Interpreter implements Expr.Visitor<Object>,Stmt.Visitor<Void>{
     }
 
 
-    void interpret(List<Stmt> statements){
+    //false when a runtime error stopped the program
+    boolean interpret(List<Stmt> statements){
         try {
+            JitCode script = jitThreshold == 0 ? JitCompiler.compileScript(statements) : null;
+            if(script != null){
+                script.invoke(this,Cell.EMPTY,null,Collections.emptyList());
+                return true;
+            }
             for(Stmt s: statements){
-                execute(s);
+                //a return outside a function was reported by the Resolver, it ends the script
+                if(execute(s) != Completion.NORMAL) return true;
             }
+            return true;
         }catch (RuntimeError e){
             errorHandler.runtimeError(e);
+            return false;
         }
     }
-    private void execute(Stmt s){
-        if(s != null)s.accept(this);
-
-    }
-
-
-    private String stringify(Object object){
-        if(object == null) return "nil";
-
-        if (object instanceof Double) {
-            String text = object.toString();
-            if (text.endsWith(".0")) {
-                text = text.substring(0, text.length() - 2);
-            }
-            return text;
-        }
-
-        if (object instanceof String) {
-            return (String)object;
-        }
-
-        return object.toString();
+    Completion execute(Stmt s){
+        if(s == null) return Completion.NORMAL;
+        return s.accept(this);
     }
 
 
     @Override
     public Object visitAssignExpr(Expr.Assign expr) {
         Object value = evaluate(expr.value);
-        Integer distance = locals.get(expr);
-        if(distance != null) {
-            environment.assignAt(distance,expr.name,value);
+        if(expr.kind == Expr.VariableRef.LOCAL) {
+            if(expr.captured){
+                ((Cell) frame[expr.slot]).value = value;
+            } else {
+                frame[expr.slot] = value;
+            }
+        }else if(expr.kind == Expr.VariableRef.UPVALUE) {
+            upvalues[expr.slot].value = value;
         }else {
-            globals.assign(expr.name,value);
+            globals.assignGlobal(expr.slot,expr.name,value);
         }
         //environment.assign(expr.name,value);
         return value;
@@ -87,92 +88,206 @@ public class Interpreter implements Expr.Visitor<Object>,Stmt.Visitor<Void>{
 
     @Override
     public Object visitBinaryExpr(Expr.Binary expr) {
-        Object left = evaluate(expr.left);
-        Object right = evaluate(expr.right);
         switch (expr.operator.type) {
             //This is where the intricacies of the language show up
             case MINUS:
-                checkNumberOperands(expr.operator,left,right);
-                return (double)left - (double) right;
             case SLASH:
-                checkNumberOperands(expr.operator,left,right);
-                return (double)left / (double)right;
             case STAR:
                 //todo if any of those is a number and the other is not
                 //implement number * string like python
-                checkNumberOperands(expr.operator,left,right);
-                return (double)left * (double)right;
+                return LoxValues.box(arithmetic(expr));
             case PLUS:
-                if(left instanceof Double && right instanceof Double){
-                    return (double)left + (double)right;
-                }
-
-                if(left instanceof String && right instanceof String){
-                    return (String)left + (String)right;
-                }
-                //implements "str" + 4 == "str4", 4 + "str" == "4str"
-                if(left instanceof String){
-                    return left + String.valueOf(right);
-                }
-
-                if(right instanceof String){
-                    return String.valueOf(left) + right;
-                }
-                throw new RuntimeError(expr.operator,
-                        "Operands must be two numbers or two strings.");
+                if(expr.numeric) return LoxValues.box(arithmetic(expr));
+                break;
             case GREATER:
-                checkNumberOperands(expr.operator,left,right);
-                return (double) left > (double) right;
             case GREATER_EQUAL:
-                checkNumberOperands(expr.operator,left,right);
-                return (double) left >= (double) right;
             case LESS:
-                checkNumberOperands(expr.operator,left,right);
-                return (double) left < (double) right;
             case LESS_EQUAL:
-                checkNumberOperands(expr.operator,left,right);
-                return (double) left <= (double) right;
+                return compare(expr);
+        }
+
+        Object left = evaluate(expr.left);
+        Object right = evaluate(expr.right);
+        switch (expr.operator.type) {
+            case PLUS:
+                return add(expr,left,right);
             case BANG_EQUAL:
-                return !isEqual(left,right);
+                return !LoxValues.isEqual(left,right);
             case EQUAL_EQUAL:
-                return isEqual(left,right);
+                return LoxValues.isEqual(left,right);
 
         }
 
         return null;
     }
 
-    private boolean isEqual(Object a,Object b){
-        if (a == null && b == null) return true;
-        if (a == null) return false;
-        return a.equals(b);
+    //a + node specializes to the operand types it sees first and falls back to the generic add when they change
+    private Object add(Expr.Binary expr, Object left, Object right){
+        switch (expr.specialization) {
+            case Expr.NUMBERS:
+                if(left instanceof Double && right instanceof Double){
+                    return LoxValues.box((double)left + (double)right);
+                }
+                expr.specialization = Expr.GENERIC;
+                break;
+            case Expr.STRINGS:
+                if(LoxValues.isString(left) && LoxValues.isString(right)){
+                    if(sandbox != null) sandbox.allocate(expr.operator);
+                    return Rope.concat((CharSequence)left,(CharSequence)right);
+                }
+                expr.specialization = Expr.GENERIC;
+                break;
+            case Expr.UNINITIALIZED:
+                if(left instanceof Double && right instanceof Double) expr.specialization = Expr.NUMBERS;
+                else if(LoxValues.isString(left) && LoxValues.isString(right)) expr.specialization = Expr.STRINGS;
+                else expr.specialization = Expr.GENERIC;
+                break;
+        }
+
+        Object sum = LoxValues.add(left,right);
+        if(sandbox != null && LoxValues.isString(sum)) sandbox.allocate(expr.operator);
+        if(sum != null) return sum;
+        throw new RuntimeError(expr.operator,
+                "Operands must be two numbers or two strings.");
+    }
+
+    //evaluates an expression the Resolver marked numeric without boxing what it produces
+    private double evaluateDouble(Expr expr){
+        if(expr instanceof Expr.Binary) return arithmetic((Expr.Binary) expr);
+        if(expr instanceof Expr.Grouping) return evaluateDouble(((Expr.Grouping) expr).expression);
+        if(expr instanceof Expr.Unary){
+            Expr.Unary unary = (Expr.Unary) expr;
+            if(unary.right.numeric) return -evaluateDouble(unary.right);
+            Object right = evaluate(unary.right);
+            checkNumberOperand(unary.operator,right);
+            return -(double)right;
+        }
+        return (double)((Expr.Literal) expr).value;
+    }
+
+    //numeric operands are evaluated unboxed, the others are checked once both sides have been evaluated
+    private double arithmetic(Expr.Binary expr){
+        double left = 0;
+        double right = 0;
+        Object boxedLeft = null;
+        Object boxedRight = null;
+        if(expr.left.numeric) left = evaluateDouble(expr.left);
+        else boxedLeft = evaluate(expr.left);
+        if(expr.right.numeric) right = evaluateDouble(expr.right);
+        else boxedRight = evaluate(expr.right);
+        if(!expr.left.numeric) left = numberOperand(expr.operator,boxedLeft);
+        if(!expr.right.numeric) right = numberOperand(expr.operator,boxedRight);
+
+        switch (expr.operator.type) {
+            case MINUS: return left - right;
+            case SLASH: return left / right;
+            case STAR: return left * right;
+            default: return left + right;
+        }
+    }
+
+    private boolean compare(Expr.Binary expr){
+        double left = 0;
+        double right = 0;
+        Object boxedLeft = null;
+        Object boxedRight = null;
+        if(expr.left.numeric) left = evaluateDouble(expr.left);
+        else boxedLeft = evaluate(expr.left);
+        if(expr.right.numeric) right = evaluateDouble(expr.right);
+        else boxedRight = evaluate(expr.right);
+        if(!expr.left.numeric) left = numberOperand(expr.operator,boxedLeft);
+        if(!expr.right.numeric) right = numberOperand(expr.operator,boxedRight);
+
+        switch (expr.operator.type) {
+            case GREATER: return left > right;
+            case GREATER_EQUAL: return left >= right;
+            case LESS: return left < right;
+            default: return left <= right;
+        }
     }
 
     @Override
     public Object visitCallExpr(Expr.Call expr) {
+        if(expr.callee instanceof Expr.Get) return invoke(expr,(Expr.Get) expr.callee);
+
         Object callee = evaluate(expr.callee);
-        List<Object> args = new ArrayList<>();
+        List<Object> args = evaluateArguments(expr);
+
+        //a site that keeps calling the same declaration has had its arity checked already
+        if(expr.specialization == Expr.MONOMORPHIC){
+            if(callee instanceof LoxFunction && ((LoxFunction) callee).declaration() == expr.target){
+                return ((LoxFunction) callee).call(this,args);
+            }
+            expr.specialization = Expr.GENERIC;
+            expr.target = null;
+        }
+        Object result = call(callee,args,expr.paren);
+        if(expr.specialization == Expr.UNINITIALIZED){
+            if(callee instanceof LoxFunction){
+                expr.target = ((LoxFunction) callee).declaration();
+                expr.specialization = Expr.MONOMORPHIC;
+            } else {
+                expr.specialization = Expr.GENERIC;
+            }
+        }
+        return result;
+    }
+
+    //obj.method(...) runs the method with obj as this, a bound method is only made when one escapes
+    private Object invoke(Expr.Call expr, Expr.Get get){
+        Object object = evaluate(get.object);
+        LoxFunction method = null;
+        Object callee = null;
+        if(object instanceof LoxInstance){
+            method = get.cache.method((LoxInstance) object,get.name);
+        }
+        if(method == null) callee = getProperty(object,get);
+
+        List<Object> args = evaluateArguments(expr);
+        if(method == null) return call(callee,args,expr.paren);
+        return invokeMethod(method,(LoxInstance) object,args,expr.paren);
+    }
+
+    Object invokeMethod(LoxFunction method, LoxInstance receiver, List<Object> args, Token paren){
+        checkArity(method,args.size(),paren);
+        return method.callMethod(this,receiver,args);
+    }
+
+    private List<Object> evaluateArguments(Expr.Call expr){
+        List<Object> args = new ArrayList<>(expr.arguments.size());
         for(Expr arg: expr.arguments){
             args.add(evaluate(arg));
         }
+        return args;
+    }
+
+    Object call(Object callee, List<Object> args, Token paren){
         if(!(callee instanceof LoxCallable)){
-            throw new RuntimeError(expr.paren,"Can only call functions and classes");
+            throw new RuntimeError(paren,"Can only call functions and classes");
         }
 
         LoxCallable function = (LoxCallable)callee;
-        if(args.size() != function.arity()){
-            throw new RuntimeError(expr.paren, "Expected " +
+        checkArity(function,args.size(),paren);
+        if(sandbox != null && function instanceof LoxClass) sandbox.allocate(paren);
+        return function.call(this,args);
+    }
+
+    private static void checkArity(LoxCallable function, int argCount, Token paren){
+        if(argCount != function.arity()){
+            throw new RuntimeError(paren, "Expected " +
                     function.arity() + " arguments but got " +
-                    args.size() + ".");
+                    argCount + ".");
         }
-        return function.call(this,args);
     }
 
     @Override
     public Object visitGetExpr(Expr.Get expr) {
-        Object object = evaluate(expr.object);
+        return getProperty(evaluate(expr.object),expr);
+    }
+
+    static Object getProperty(Object object, Expr.Get expr){
         if(object instanceof LoxInstance){
-            return ((LoxInstance) object).get(expr.name);
+            return expr.cache.get((LoxInstance) object,expr.name);
         }
 
         throw new RuntimeError(expr.name,"Only instances have properties");
@@ -194,9 +309,9 @@ public class Interpreter implements Expr.Visitor<Object>,Stmt.Visitor<Void>{
 
         //short circuiting
         if(expr.operator.type == TokenType.OR){
-            if(isTruthy(left)) return left;
+            if(LoxValues.isTruthy(left)) return left;
         } else {
-            if(!isTruthy(left))return left;
+            if(!LoxValues.isTruthy(left))return left;
         }
         return evaluate(expr.right);
     }
@@ -211,20 +326,22 @@ public class Interpreter implements Expr.Visitor<Object>,Stmt.Visitor<Void>{
         }
 
         Object value = evaluate(expr.value);
-        ((LoxInstance)object).set(expr.name,value);
+        expr.cache.set((LoxInstance)object,expr.name,value);
 
         return value;
     }
 
     @Override
     public Object visitSuperExpr(Expr.Super expr) {
-        int distance = locals.get(expr);
-        LoxClass superclass = (LoxClass)environment.getAt(distance,"super");
-        LoxInstance object = (LoxInstance) environment.getAt(distance-1,"this");
-        LoxFunction method = superclass.findMethod(expr.method.lexeme);
+        return superMethod(lookupVariable(expr.keyword,expr),lookupVariable(expr.keyword,expr.receiver),expr);
+    }
+
+    static Object superMethod(Object superclass, Object receiver, Expr.Super expr){
+        LoxInstance object = (LoxInstance) receiver;
+        LoxFunction method = ((LoxClass) superclass).findMethod(expr.methodId);
         if(method == null) {
             throw new RuntimeError(expr.method,
-                    "Undefined property '" + expr.method.lexeme + "'.");
+                    "Undefined property '" + expr.method.lexeme() + "'.");
         }
 
         return method.bind(object);
@@ -242,10 +359,10 @@ public class Interpreter implements Expr.Visitor<Object>,Stmt.Visitor<Void>{
         Object right = evaluate(expr.right);
         switch(expr.operator.type) {
             case BANG:
-                return !isTruthy(right);
+                return !LoxValues.isTruthy(right);
             case MINUS:
                 checkNumberOperand(expr.operator,right);
-                return -(double)right;
+                return LoxValues.box(-(double)right);
         }
 
         return null;
@@ -256,12 +373,14 @@ public class Interpreter implements Expr.Visitor<Object>,Stmt.Visitor<Void>{
         return lookupVariable(expr.name,expr);
     }
 
-    private Object lookupVariable(Token name,Expr expr){
-        Integer distance = locals.get(expr);
-        if(distance != null){
-            return environment.getAt(distance,name.lexeme);
+    private Object lookupVariable(Token name,Expr.VariableRef expr){
+        if(expr.kind == Expr.VariableRef.LOCAL){
+            Object value = frame[expr.slot];
+            return expr.captured ? ((Cell) value).value : value;
+        } else if(expr.kind == Expr.VariableRef.UPVALUE){
+            return upvalues[expr.slot].value;
         } else {
-            return globals.get(name);
+            return globals.getGlobal(expr.slot,name);
         }
     }
 
@@ -271,89 +390,122 @@ public class Interpreter implements Expr.Visitor<Object>,Stmt.Visitor<Void>{
         return expr.accept(this);
     }
 
-    private boolean isTruthy(Object object){
-        //false and nil are falsey, and everything else is truthy
-        if(object == null) return false;
-        if(object instanceof Boolean) return (boolean)object;
-        return true;
-    }
-
     private void checkNumberOperand(Token operator,Object operand){
         if(operand instanceof Double) return;
         throw new RuntimeError(operator,"Operand must be a number.");
     }
 
-    private void checkNumberOperands(Token operator,Object left,Object right){
-        if(left instanceof Double && right instanceof Double) return;
+    private double numberOperand(Token operator,Object operand){
+        if(operand instanceof Double) return (double)operand;
         throw new RuntimeError(operator,"Operands must be numbers.");
     }
 
     @Override
-    public Void visitExpressionStmt(Stmt.Expression stmt) {
+    public Completion visitExpressionStmt(Stmt.Expression stmt) {
         evaluate(stmt.expression);
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitPrintStmt(Stmt.Print stmt) {
-        Object value = evaluate(stmt.expression);
-        printHandler.print(stringify(value));
-        return null;
+    public Completion visitPrintStmt(Stmt.Print stmt) {
+        print(evaluate(stmt.expression));
+        return Completion.NORMAL;
+    }
+
+    void print(Object value){
+        printHandler.print(LoxValues.stringify(value));
     }
 
     @Override
-    public Void visitVarStmt(Stmt.Var stmt) {
+    public Completion visitVarStmt(Stmt.Var stmt) {
         Object value = null;
         if(stmt.initializer != null) {
             value = evaluate(stmt.initializer);
         }
 
-        environment.define(stmt.name.lexeme,value);
-        return null;
+        declare(stmt,value);
+        return Completion.NORMAL;
+    }
+
+    private void declare(Stmt.Declaration declaration,Object value){
+        if(declaration.slot == Stmt.Declaration.GLOBAL){
+            globals.defineGlobal(declaration.globalSlot,value);
+        } else {
+            define(declaration.slot,declaration.captured ? new Cell(value) : value);
+        }
+    }
+
+    private void define(int slot, Object value){
+        if(slot >= frame.length){
+            //only the script's frame isn't sized up front
+            frame = Arrays.copyOf(frame,Math.max(slot + 1,frame.length * 2));
+        }
+        frame[slot] = value;
+    }
+
+    //the cells a closure over the function captures from where it is declared
+    private Cell[] capture(Stmt.Function function){
+        List<Stmt.Function.Upvalue> captured = function.upvalues;
+        if(captured.isEmpty()) return Cell.EMPTY;
+        Cell[] cells = new Cell[captured.size()];
+        for(int i = 0; i < cells.length; i++){
+            Stmt.Function.Upvalue upvalue = captured.get(i);
+            cells[i] = upvalue.isLocal ? (Cell) frame[upvalue.index] : upvalues[upvalue.index];
+        }
+        return cells;
     }
 
     @Override
-    public Void visitIfStmt(Stmt.If stmt) {
-        if(isTruthy(evaluate(stmt.condition))){
-            execute(stmt.thenBranch);
-        }else if(stmt.elseBranch != null) {
-            execute(stmt.elseBranch);
+    public Completion visitIfStmt(Stmt.If stmt) {
+        if(LoxValues.isTruthy(evaluate(stmt.condition))){
+            return execute(stmt.thenBranch);
         }
-        return null;
+        return execute(stmt.elseBranch);
     }
 
     @Override
-    public Void visitBlockStmt(Stmt.Block stmt) {
-        executeBlock(stmt.statements, new Environment(environment));
-        return null;
+    //a block's locals have their own slots in the frame, so entering it allocates nothing
+    public Completion visitBlockStmt(Stmt.Block stmt) {
+        return executeBlock(stmt.statements);
     }
 
     @Override
-    public Void visitWhileStmt(Stmt.While stmt) {
-        while(isTruthy(evaluate(stmt.condition))){
-            execute(stmt.body);
+    public Completion visitWhileStmt(Stmt.While stmt) {
+        while(LoxValues.isTruthy(evaluate(stmt.condition))){
+            if(sandbox != null) sandbox.step(stmt.keyword);
+            Completion completion = execute(stmt.body);
+            //break and continue would be consumed here
+            if(completion != Completion.NORMAL) return completion;
         }
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitFunctionStmt(Stmt.Function stmt) {
-        LoxFunction function = new LoxFunction(stmt,environment,false);
-        environment.define(stmt.name.lexeme,function);
-        return null;
+    public Completion visitFunctionStmt(Stmt.Function stmt) {
+        if(sandbox != null) sandbox.allocate(stmt.name);
+        if(stmt.slot != Stmt.Declaration.GLOBAL && stmt.captured){
+            //a function that calls itself captures its own cell, so the cell exists before the closure does
+            Cell cell = new Cell(null);
+            define(stmt.slot,cell);
+            cell.value = new LoxFunction(stmt,capture(stmt),false);
+        } else {
+            declare(stmt,new LoxFunction(stmt,capture(stmt),false));
+        }
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitReturnStmt(Stmt.Return stmt) {
+    public Completion visitReturnStmt(Stmt.Return stmt) {
         Object value = null;
         if(stmt.value != null){
             value = evaluate(stmt.value);
         }
-        throw new Return(value);
+        return Completion.returning(value);
     }
 
     @Override
-    public Void visitClassStmt(Stmt.Class stmt) {
+    public Completion visitClassStmt(Stmt.Class stmt) {
+        if(sandbox != null) sandbox.allocate(stmt.name);
         Object superclass = null;
         if (stmt.superclass != null) {
             superclass = evaluate(stmt.superclass);
@@ -362,42 +514,62 @@ public class Interpreter implements Expr.Visitor<Object>,Stmt.Visitor<Void>{
             }
         }
 
-        environment.define(stmt.name.lexeme,null);
+        boolean isGlobal = stmt.slot == Stmt.Declaration.GLOBAL;
+        int slot = isGlobal ? stmt.globalSlot : stmt.slot;
+        Cell cell = null;
+        if(isGlobal){
+            globals.defineGlobal(slot,null);
+        } else if(stmt.captured){
+            //methods naming their own class capture it
+            cell = new Cell(null);
+            define(slot,cell);
+        } else {
+            define(slot,null);
+        }
 
         if(stmt.superclass != null) {
-            environment = new Environment(environment);
-            environment.define("super",superclass);
+            //only methods read super, always through their upvalues
+            define(stmt.superSlot,new Cell(superclass));
         }
 
         Map<String,LoxFunction> methods = new HashMap<>();
         for(Stmt.Function method: stmt.methods){
-            LoxFunction func = new LoxFunction(method,environment,method.name.lexeme.equals("init"));
-            methods.put(method.name.lexeme,func);
-        }
-        LoxClass klass = new LoxClass(stmt.name.lexeme,(LoxClass)superclass,methods);
-        if(superclass != null){
-            //we pop the environment
-            environment = environment.enclosing;
+            LoxFunction func = new LoxFunction(method,capture(method),method.name.lexeme().equals("init"));
+            methods.put(method.name.lexeme(),func);
         }
+        LoxClass klass = new LoxClass(stmt.name.lexeme(),(LoxClass)superclass,methods);
 
-        environment.assign(stmt.name,klass);
-        return null;
+        if(isGlobal){
+            globals.assignGlobal(slot,stmt.name,klass);
+        } else if(cell != null){
+            cell.value = klass;
+        } else {
+            frame[slot] = klass;
+        }
+        return Completion.NORMAL;
     }
 
-    protected void executeBlock(List<Stmt> statements, Environment environment) {
-        Environment previous = this.environment;
+    //runs a function body in its own frame with the cells its closure captured
+    Completion executeFunction(List<Stmt> body, Object[] frame, Cell[] upvalues) {
+        Object[] previousFrame = this.frame;
+        Cell[] previousUpvalues = this.upvalues;
         try {
-            this.environment = environment;
-            for(Stmt s: statements){
-                execute(s);
-            }
+            this.frame = frame;
+            this.upvalues = upvalues;
+            return executeBlock(body);
         } finally {
-            this.environment = previous;
+            this.frame = previousFrame;
+            this.upvalues = previousUpvalues;
         }
     }
 
-
-    public void resolve(Expr expr, int depth) {
-        locals.put(expr,depth);
+    //stops at the first statement that doesn't complete normally and hands its completion up
+    private Completion executeBlock(List<Stmt> statements) {
+        for(Stmt s: statements){
+            Completion completion = execute(s);
+            if(completion != Completion.NORMAL) return completion;
+        }
+        return Completion.NORMAL;
     }
+
 }
@@ -0,0 +1,6 @@
+import java.util.List;
+
+//a function body or script compiled to a JVM class by the JitCompiler
+interface JitCode {
+    Object invoke(Interpreter interpreter, Cell[] upvalues, Object receiver, List<Object> arguments);
+}
@@ -0,0 +1,825 @@
+import org.objectweb.asm.ClassTooLargeException;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodTooLargeException;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.List;
+
+//compiles function bodies, and scripts when the JIT runs eagerly, to JVM classes.
+//the classes are hidden classes so they are unloaded together with the code that uses them.
+//locals of the compiled code live in JVM locals, everything else goes through JitRuntime,
+//numbers stay unboxed doubles between operators and comparisons jump without making a Boolean
+final class JitCompiler implements Expr.Visitor<JitCompiler.Kind>,Stmt.Visitor<Void>,Opcodes {
+
+    //what an expression left on the JVM stack
+    enum Kind {
+        OBJECT,
+        DOUBLE,
+        BOOLEAN
+    }
+
+    private static final String CLASS_NAME = "JitCompiled";
+    private static final String RUNTIME = "JitRuntime";
+    private static final String OBJECT = "Ljava/lang/Object;";
+    private static final String TOKEN = "LToken;";
+    private static final String CELL = "LCell;";
+    private static final String INVOKE_DESCRIPTOR = "(LInterpreter;[" + CELL + OBJECT + "Ljava/util/List;)" + OBJECT;
+
+    private static final int INTERPRETER = 1;
+    private static final int UPVALUES = 2;
+    private static final int RECEIVER = 3;
+    private static final int ARGUMENTS = 4;
+    //frame slots are the JVM locals from here on, temporaries come after them
+    private static final int FRAME = ARGUMENTS + 1;
+
+    private final ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_FRAMES) {
+        @Override
+        protected String getCommonSuperClass(String type1, String type2) {
+            //every value is checked and cast where it is used, so merging to Object is always enough
+            return type1.equals(type2) ? type1 : "java/lang/Object";
+        }
+    };
+    private final List<Object> constants = new ArrayList<>();
+    private final List<String> constantDescriptors = new ArrayList<>();
+    private MethodVisitor mv;
+    private int nextLocal;
+
+    private JitCompiler() {
+        classWriter.visit(V17,ACC_FINAL | ACC_SUPER,CLASS_NAME,null,"java/lang/Object",new String[] { "JitCode" });
+    }
+
+    //the compiled code of a function once it has been called threshold times, null while it is interpreted
+    static JitCode codeFor(Stmt.Function declaration, int threshold) {
+        JitCode code = declaration.jitCode;
+        if(code != null || threshold < 0 || declaration.jitFailed) return code;
+        if(++declaration.invocations < threshold) return null;
+
+        code = new JitCompiler().compileFunction(declaration);
+        if(code == null){
+            declaration.jitFailed = true;
+        } else {
+            declaration.jitCode = code;
+        }
+        return code;
+    }
+
+    //top level statements the JIT can't compile are handed back to the Interpreter
+    static JitCode compileScript(List<Stmt> statements) {
+        return new JitCompiler().compileScriptBody(statements);
+    }
+
+    private JitCode compileFunction(Stmt.Function declaration) {
+        for(Stmt s: declaration.body){
+            if(!compilable(s,true)) return null;
+        }
+
+        beginMethod(declaration.frameSize);
+        //slot zero is this, as in the Interpreter's frames
+        mv.visitVarInsn(ALOAD,RECEIVER);
+        mv.visitVarInsn(ASTORE,FRAME);
+        for(int i = 0; i < declaration.params.size(); i++){
+            mv.visitVarInsn(ALOAD,ARGUMENTS);
+            pushInt(i);
+            mv.visitMethodInsn(INVOKEINTERFACE,"java/util/List","get","(I)" + OBJECT,true);
+            mv.visitVarInsn(ASTORE,FRAME + i + 1);
+        }
+        for(Stmt s: declaration.body){
+            compile(s);
+        }
+        return endMethod();
+    }
+
+    private JitCode compileScriptBody(List<Stmt> statements) {
+        int frameSize = 0;
+        for(Stmt s: statements){
+            if(compilable(s,false)) frameSize = Math.max(frameSize,slotsUsed(s));
+        }
+        beginMethod(frameSize);
+        for(Stmt s: statements){
+            if(s == null) continue;
+            if(compilable(s,false)){
+                compile(s);
+            } else {
+                mv.visitVarInsn(ALOAD,INTERPRETER);
+                loadConstant(s,"LStmt;");
+                invokeRuntime("execute","(LInterpreter;LStmt;)Z");
+                Label next = new Label();
+                mv.visitJumpInsn(IFNE,next);
+                mv.visitInsn(ACONST_NULL);
+                mv.visitInsn(ARETURN);
+                mv.visitLabel(next);
+            }
+        }
+        return endMethod();
+    }
+
+    //declarations inside the compiled code would capture JVM locals, so they stay interpreted,
+    //which also means no local of compiled code is ever captured and kept in a cell
+    private static boolean compilable(Stmt stmt, boolean inFunction) {
+        if(stmt == null) return true;
+        if(stmt instanceof Stmt.Function || stmt instanceof Stmt.Class) return false;
+        if(stmt instanceof Stmt.Return) return inFunction;
+        if(stmt instanceof Stmt.Block){
+            for(Stmt s: ((Stmt.Block) stmt).statements){
+                if(!compilable(s,inFunction)) return false;
+            }
+            return true;
+        }
+        if(stmt instanceof Stmt.If){
+            Stmt.If ifStmt = (Stmt.If) stmt;
+            return compilable(ifStmt.thenBranch,inFunction) && compilable(ifStmt.elseBranch,inFunction);
+        }
+        if(stmt instanceof Stmt.While){
+            return compilable(((Stmt.While) stmt).body,inFunction);
+        }
+        return true;
+    }
+
+    //the script's blocks that the Interpreter doesn't run declare their locals in these slots
+    private static int slotsUsed(Stmt stmt) {
+        if(stmt instanceof Stmt.Var) return ((Stmt.Var) stmt).slot + 1;
+        int slots = 0;
+        if(stmt instanceof Stmt.Block){
+            for(Stmt s: ((Stmt.Block) stmt).statements) slots = Math.max(slots,slotsUsed(s));
+        } else if(stmt instanceof Stmt.If){
+            Stmt.If ifStmt = (Stmt.If) stmt;
+            slots = Math.max(slotsUsed(ifStmt.thenBranch),slotsUsed(ifStmt.elseBranch));
+        } else if(stmt instanceof Stmt.While){
+            slots = slotsUsed(((Stmt.While) stmt).body);
+        }
+        return slots;
+    }
+
+    private void beginMethod(int frameSize) {
+        mv = classWriter.visitMethod(ACC_PUBLIC,"invoke",INVOKE_DESCRIPTOR,null,null);
+        mv.visitCode();
+        //a frame slot is nil until its declaration runs, which keeps every load of it verifiable too
+        for(int slot = 0; slot < frameSize; slot++){
+            mv.visitInsn(ACONST_NULL);
+            mv.visitVarInsn(ASTORE,FRAME + slot);
+        }
+        nextLocal = FRAME + frameSize;
+    }
+
+    private JitCode endMethod() {
+        mv.visitInsn(ACONST_NULL);
+        mv.visitInsn(ARETURN);
+        mv.visitMaxs(0,0);
+        mv.visitEnd();
+
+        try {
+            emitConstructor();
+            classWriter.visitEnd();
+            byte[] bytes = classWriter.toByteArray();
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes,true);
+            return (JitCode) lookup.findConstructor(lookup.lookupClass(),MethodType.methodType(void.class,Object[].class))
+                    .invoke(constants.toArray());
+        } catch (MethodTooLargeException | ClassTooLargeException e) {
+            //too big for one JVM method, keep interpreting it
+            return null;
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Could not instantiate compiled code",e);
+        }
+    }
+
+    //constants live in final fields, which the JVM trusts in hidden classes and folds into the code
+    private void emitConstructor() {
+        for(int i = 0; i < constants.size(); i++){
+            classWriter.visitField(ACC_PRIVATE | ACC_FINAL,"k" + i,constantDescriptors.get(i),null,null).visitEnd();
+        }
+        MethodVisitor init = classWriter.visitMethod(0,"<init>","([" + OBJECT + ")V",null,null);
+        init.visitCode();
+        init.visitVarInsn(ALOAD,0);
+        init.visitMethodInsn(INVOKESPECIAL,"java/lang/Object","<init>","()V",false);
+        for(int i = 0; i < constants.size(); i++){
+            String descriptor = constantDescriptors.get(i);
+            init.visitVarInsn(ALOAD,0);
+            init.visitVarInsn(ALOAD,1);
+            pushInt(init,i);
+            init.visitInsn(AALOAD);
+            init.visitTypeInsn(CHECKCAST,descriptor.substring(1,descriptor.length() - 1));
+            init.visitFieldInsn(PUTFIELD,CLASS_NAME,"k" + i,descriptor);
+        }
+        init.visitInsn(RETURN);
+        init.visitMaxs(0,0);
+        init.visitEnd();
+    }
+
+    private void loadConstant(Object value, String descriptor) {
+        int index = -1;
+        for(int i = 0; i < constants.size(); i++){
+            if(constants.get(i) == value){
+                index = i;
+                break;
+            }
+        }
+        if(index == -1){
+            constants.add(value);
+            constantDescriptors.add(descriptor);
+            index = constants.size() - 1;
+        }
+        mv.visitVarInsn(ALOAD,0);
+        mv.visitFieldInsn(GETFIELD,CLASS_NAME,"k" + index,descriptor);
+    }
+
+    private void loadToken(Token token) {
+        loadConstant(token,TOKEN);
+    }
+
+    private void invokeRuntime(String name, String descriptor) {
+        mv.visitMethodInsn(INVOKESTATIC,RUNTIME,name,descriptor,false);
+    }
+
+    private void pushInt(int value) {
+        pushInt(mv,value);
+    }
+
+    private static void pushInt(MethodVisitor mv, int value) {
+        if(value >= -1 && value <= 5){
+            mv.visitInsn(ICONST_0 + value);
+        } else if(value >= Short.MIN_VALUE && value <= Short.MAX_VALUE){
+            mv.visitIntInsn(SIPUSH,value);
+        } else {
+            mv.visitLdcInsn(value);
+        }
+    }
+
+    private int allocateLocal(int size) {
+        int local = nextLocal;
+        nextLocal += size;
+        return local;
+    }
+
+    private void compile(Stmt stmt) {
+        if(stmt != null) stmt.accept(this);
+    }
+
+    private Kind compile(Expr expr) {
+        return expr.accept(this);
+    }
+
+    private void compileObject(Expr expr) {
+        toObject(compile(expr));
+    }
+
+    private void toObject(Kind kind) {
+        if(kind == Kind.DOUBLE){
+            //the same boxes the other engines hand out, small integers come from a cache
+            mv.visitMethodInsn(INVOKESTATIC,"LoxValues","box","(D)Ljava/lang/Double;",false);
+        } else if(kind == Kind.BOOLEAN){
+            mv.visitMethodInsn(INVOKESTATIC,"java/lang/Boolean","valueOf","(Z)Ljava/lang/Boolean;",false);
+        }
+    }
+
+    private void toBoolean(Kind kind) {
+        if(kind == Kind.OBJECT){
+            invokeRuntime("isTruthy","(" + OBJECT + ")Z");
+        } else if(kind == Kind.DOUBLE){
+            //every number is truthy
+            mv.visitInsn(POP2);
+            mv.visitInsn(ICONST_1);
+        }
+    }
+
+    private void pop(Kind kind) {
+        mv.visitInsn(kind == Kind.DOUBLE ? POP2 : POP);
+    }
+
+    //an operand evaluated into a temporary local, so both sides of an operator are evaluated before either is checked
+    private static class Operand {
+        final Kind kind;
+        final int local;
+
+        Operand(Kind kind, int local) {
+            this.kind = kind;
+            this.local = local;
+        }
+    }
+
+    private Operand operand(Expr expr) {
+        Kind kind = compile(expr);
+        if(kind == Kind.DOUBLE){
+            int local = allocateLocal(2);
+            mv.visitVarInsn(DSTORE,local);
+            return new Operand(kind,local);
+        }
+        toObject(kind);
+        int local = allocateLocal(1);
+        mv.visitVarInsn(ASTORE,local);
+        return new Operand(Kind.OBJECT,local);
+    }
+
+    private void loadObject(Operand operand) {
+        if(operand.kind == Kind.DOUBLE){
+            mv.visitVarInsn(DLOAD,operand.local);
+            toObject(Kind.DOUBLE);
+        } else {
+            mv.visitVarInsn(ALOAD,operand.local);
+        }
+    }
+
+    private void loadDouble(Operand operand) {
+        if(operand.kind == Kind.DOUBLE){
+            mv.visitVarInsn(DLOAD,operand.local);
+        } else {
+            mv.visitVarInsn(ALOAD,operand.local);
+            mv.visitTypeInsn(CHECKCAST,"java/lang/Double");
+            mv.visitMethodInsn(INVOKEVIRTUAL,"java/lang/Double","doubleValue","()D",false);
+        }
+    }
+
+    private void jumpIfNotNumber(Operand operand, Label target) {
+        if(operand.kind == Kind.DOUBLE) return;
+        mv.visitVarInsn(ALOAD,operand.local);
+        mv.visitTypeInsn(INSTANCEOF,"java/lang/Double");
+        mv.visitJumpInsn(IFEQ,target);
+    }
+
+    //leaves both operands as doubles on the stack or throws the Interpreter's error
+    private void numberOperands(Expr.Binary expr) {
+        int mark = nextLocal;
+        Operand left = operand(expr.left);
+        Operand right = operand(expr.right);
+        if(left.kind == Kind.OBJECT || right.kind == Kind.OBJECT){
+            Label fail = new Label();
+            Label ok = new Label();
+            jumpIfNotNumber(left,fail);
+            jumpIfNotNumber(right,fail);
+            mv.visitJumpInsn(GOTO,ok);
+            mv.visitLabel(fail);
+            loadToken(expr.operator);
+            invokeRuntime("operandsMustBeNumbers","(" + TOKEN + ")LRuntimeError;");
+            mv.visitInsn(ATHROW);
+            mv.visitLabel(ok);
+        }
+        loadDouble(left);
+        loadDouble(right);
+        nextLocal = mark;
+    }
+
+    private static boolean isComparison(TokenType type) {
+        return type == TokenType.LESS || type == TokenType.LESS_EQUAL
+                || type == TokenType.GREATER || type == TokenType.GREATER_EQUAL;
+    }
+
+    //jumps to target when the truthiness of the condition is jumpIf, falls through otherwise
+    private void branch(Expr condition, Label target, boolean jumpIf) {
+        if(condition instanceof Expr.Grouping){
+            branch(((Expr.Grouping) condition).expression,target,jumpIf);
+            return;
+        }
+        if(condition instanceof Expr.Unary && ((Expr.Unary) condition).operator.type == TokenType.BANG){
+            branch(((Expr.Unary) condition).right,target,!jumpIf);
+            return;
+        }
+        if(condition instanceof Expr.Logical){
+            Expr.Logical logical = (Expr.Logical) condition;
+            boolean isOr = logical.operator.type == TokenType.OR;
+            if(isOr == jumpIf){
+                branch(logical.left,target,jumpIf);
+                branch(logical.right,target,jumpIf);
+            } else {
+                Label skip = new Label();
+                branch(logical.left,skip,!jumpIf);
+                branch(logical.right,target,jumpIf);
+                mv.visitLabel(skip);
+            }
+            return;
+        }
+        if(condition instanceof Expr.Binary && isComparison(((Expr.Binary) condition).operator.type)){
+            Expr.Binary binary = (Expr.Binary) condition;
+            numberOperands(binary);
+            compareAndJump(binary.operator.type,target,jumpIf);
+            return;
+        }
+        toBoolean(compile(condition));
+        mv.visitJumpInsn(jumpIf ? IFNE : IFEQ,target);
+    }
+
+    //NaN makes every comparison false, hence dcmpg for < and <= and dcmpl for > and >=
+    private void compareAndJump(TokenType type, Label target, boolean jumpIf) {
+        switch (type) {
+            case LESS:
+                mv.visitInsn(DCMPG);
+                mv.visitJumpInsn(jumpIf ? IFLT : IFGE,target);
+                break;
+            case LESS_EQUAL:
+                mv.visitInsn(DCMPG);
+                mv.visitJumpInsn(jumpIf ? IFLE : IFGT,target);
+                break;
+            case GREATER:
+                mv.visitInsn(DCMPL);
+                mv.visitJumpInsn(jumpIf ? IFGT : IFLE,target);
+                break;
+            default:
+                mv.visitInsn(DCMPL);
+                mv.visitJumpInsn(jumpIf ? IFGE : IFLT,target);
+                break;
+        }
+    }
+
+    private Kind materialize(Expr condition) {
+        Label isFalse = new Label();
+        Label end = new Label();
+        branch(condition,isFalse,false);
+        mv.visitInsn(ICONST_1);
+        mv.visitJumpInsn(GOTO,end);
+        mv.visitLabel(isFalse);
+        mv.visitInsn(ICONST_0);
+        mv.visitLabel(end);
+        return Kind.BOOLEAN;
+    }
+
+    private Kind loadVariable(Expr.VariableRef ref, Token name) {
+        if(ref.kind == Expr.VariableRef.GLOBAL){
+            mv.visitVarInsn(ALOAD,INTERPRETER);
+            loadToken(name);
+            pushInt(ref.slot);
+            invokeRuntime("getGlobal","(LInterpreter;" + TOKEN + "I)" + OBJECT);
+        } else if(ref.kind == Expr.VariableRef.UPVALUE){
+            loadUpvalue(ref.slot);
+            mv.visitFieldInsn(GETFIELD,"Cell","value",OBJECT);
+        } else {
+            mv.visitVarInsn(ALOAD,FRAME + ref.slot);
+        }
+        return Kind.OBJECT;
+    }
+
+    private void loadUpvalue(int index) {
+        mv.visitVarInsn(ALOAD,UPVALUES);
+        pushInt(index);
+        mv.visitInsn(AALOAD);
+    }
+
+    @Override
+    public Kind visitAssignExpr(Expr.Assign expr) {
+        compileObject(expr.value);
+        int value = allocateLocal(1);
+        mv.visitVarInsn(ASTORE,value);
+        if(expr.kind == Expr.VariableRef.GLOBAL){
+            mv.visitVarInsn(ALOAD,INTERPRETER);
+            loadToken(expr.name);
+            pushInt(expr.slot);
+            mv.visitVarInsn(ALOAD,value);
+            invokeRuntime("assignGlobal","(LInterpreter;" + TOKEN + "I" + OBJECT + ")V");
+        } else if(expr.kind == Expr.VariableRef.UPVALUE){
+            loadUpvalue(expr.slot);
+            mv.visitVarInsn(ALOAD,value);
+            mv.visitFieldInsn(PUTFIELD,"Cell","value",OBJECT);
+        } else {
+            mv.visitVarInsn(ALOAD,value);
+            mv.visitVarInsn(ASTORE,FRAME + expr.slot);
+        }
+        mv.visitVarInsn(ALOAD,value);
+        nextLocal = value;
+        return Kind.OBJECT;
+    }
+
+    @Override
+    public Kind visitBinaryExpr(Expr.Binary expr) {
+        switch (expr.operator.type) {
+            case MINUS:
+                numberOperands(expr);
+                mv.visitInsn(DSUB);
+                return Kind.DOUBLE;
+            case SLASH:
+                numberOperands(expr);
+                mv.visitInsn(DDIV);
+                return Kind.DOUBLE;
+            case STAR:
+                numberOperands(expr);
+                mv.visitInsn(DMUL);
+                return Kind.DOUBLE;
+            case PLUS:
+                return add(expr);
+            case GREATER:
+            case GREATER_EQUAL:
+            case LESS:
+            case LESS_EQUAL:
+                return materialize(expr);
+            case BANG_EQUAL:
+            case EQUAL_EQUAL:
+                return equality(expr);
+        }
+        throw new IllegalStateException("Unknown operator " + expr.operator.type);
+    }
+
+    private Kind add(Expr.Binary expr) {
+        int mark = nextLocal;
+        Operand left = operand(expr.left);
+        Operand right = operand(expr.right);
+        if(left.kind == Kind.DOUBLE && right.kind == Kind.DOUBLE){
+            loadDouble(left);
+            loadDouble(right);
+            mv.visitInsn(DADD);
+            nextLocal = mark;
+            return Kind.DOUBLE;
+        }
+
+        Label slow = new Label();
+        Label end = new Label();
+        //a site the Interpreter only saw concatenating strings doesn't get the number fast path
+        if(expr.specialization != Expr.STRINGS){
+            jumpIfNotNumber(left,slow);
+            jumpIfNotNumber(right,slow);
+            loadDouble(left);
+            loadDouble(right);
+            mv.visitInsn(DADD);
+            toObject(Kind.DOUBLE);
+            mv.visitJumpInsn(GOTO,end);
+        }
+        mv.visitLabel(slow);
+        mv.visitVarInsn(ALOAD,INTERPRETER);
+        loadObject(left);
+        loadObject(right);
+        loadToken(expr.operator);
+        invokeRuntime("add","(LInterpreter;" + OBJECT + OBJECT + TOKEN + ")" + OBJECT);
+        mv.visitLabel(end);
+        nextLocal = mark;
+        return Kind.OBJECT;
+    }
+
+    private Kind equality(Expr.Binary expr) {
+        int mark = nextLocal;
+        Operand left = operand(expr.left);
+        Operand right = operand(expr.right);
+        if(left.kind == Kind.DOUBLE && right.kind == Kind.DOUBLE){
+            //Double.compare is what Double.equals does, NaN equals itself and -0 is not 0
+            loadDouble(left);
+            loadDouble(right);
+            mv.visitMethodInsn(INVOKESTATIC,"java/lang/Double","compare","(DD)I",false);
+            Label notEqual = new Label();
+            Label end = new Label();
+            mv.visitJumpInsn(IFNE,notEqual);
+            mv.visitInsn(ICONST_1);
+            mv.visitJumpInsn(GOTO,end);
+            mv.visitLabel(notEqual);
+            mv.visitInsn(ICONST_0);
+            mv.visitLabel(end);
+        } else {
+            loadObject(left);
+            loadObject(right);
+            invokeRuntime("isEqual","(" + OBJECT + OBJECT + ")Z");
+        }
+        if(expr.operator.type == TokenType.BANG_EQUAL){
+            mv.visitInsn(ICONST_1);
+            mv.visitInsn(IXOR);
+        }
+        nextLocal = mark;
+        return Kind.BOOLEAN;
+    }
+
+    @Override
+    public Kind visitCallExpr(Expr.Call expr) {
+        if(expr.callee instanceof Expr.Get) return invoke(expr,(Expr.Get) expr.callee);
+
+        mv.visitVarInsn(ALOAD,INTERPRETER);
+        compileObject(expr.callee);
+        compileArguments(expr);
+        loadToken(expr.paren);
+        invokeRuntime("call","(LInterpreter;" + OBJECT + "[" + OBJECT + TOKEN + ")" + OBJECT);
+        return Kind.OBJECT;
+    }
+
+    //like the Interpreter, the property is looked up before the arguments are evaluated and methods aren't bound
+    private Kind invoke(Expr.Call expr, Expr.Get get) {
+        int mark = nextLocal;
+        int receiver = allocateLocal(1);
+        int method = allocateLocal(1);
+        mv.visitVarInsn(ALOAD,INTERPRETER);
+        compileObject(get.object);
+        mv.visitVarInsn(ASTORE,receiver);
+        mv.visitVarInsn(ALOAD,receiver);
+        loadConstant(get,"LExpr$Get;");
+        invokeRuntime("method","(" + OBJECT + "LExpr$Get;)LLoxFunction;");
+        mv.visitVarInsn(ASTORE,method);
+
+        mv.visitVarInsn(ALOAD,receiver);
+        mv.visitVarInsn(ALOAD,method);
+        Label isMethod = new Label();
+        Label callee = new Label();
+        mv.visitVarInsn(ALOAD,method);
+        mv.visitJumpInsn(IFNONNULL,isMethod);
+        mv.visitVarInsn(ALOAD,receiver);
+        loadConstant(get,"LExpr$Get;");
+        invokeRuntime("getProperty","(" + OBJECT + "LExpr$Get;)" + OBJECT);
+        mv.visitJumpInsn(GOTO,callee);
+        mv.visitLabel(isMethod);
+        mv.visitInsn(ACONST_NULL);
+        mv.visitLabel(callee);
+        nextLocal = mark + 2;
+
+        compileArguments(expr);
+        loadToken(expr.paren);
+        invokeRuntime("invoke","(LInterpreter;" + OBJECT + "LLoxFunction;" + OBJECT + "[" + OBJECT + TOKEN + ")" + OBJECT);
+        nextLocal = mark;
+        return Kind.OBJECT;
+    }
+
+    private void compileArguments(Expr.Call expr) {
+        pushInt(expr.arguments.size());
+        mv.visitTypeInsn(ANEWARRAY,"java/lang/Object");
+        for(int i = 0; i < expr.arguments.size(); i++){
+            mv.visitInsn(DUP);
+            pushInt(i);
+            compileObject(expr.arguments.get(i));
+            mv.visitInsn(AASTORE);
+        }
+    }
+
+    @Override
+    public Kind visitGetExpr(Expr.Get expr) {
+        compileObject(expr.object);
+        loadConstant(expr,"LExpr$Get;");
+        invokeRuntime("getProperty","(" + OBJECT + "LExpr$Get;)" + OBJECT);
+        return Kind.OBJECT;
+    }
+
+    @Override
+    public Kind visitGroupingExpr(Expr.Grouping expr) {
+        return compile(expr.expression);
+    }
+
+    @Override
+    public Kind visitLiteralExpr(Expr.Literal expr) {
+        Object value = expr.value;
+        if(value == null){
+            mv.visitInsn(ACONST_NULL);
+            return Kind.OBJECT;
+        }
+        if(value instanceof Boolean){
+            mv.visitInsn((boolean) value ? ICONST_1 : ICONST_0);
+            return Kind.BOOLEAN;
+        }
+        if(value instanceof Double){
+            mv.visitLdcInsn(value);
+            return Kind.DOUBLE;
+        }
+        mv.visitLdcInsn(value);
+        return Kind.OBJECT;
+    }
+
+    @Override
+    public Kind visitLogicalExpr(Expr.Logical expr) {
+        //the result is one of the operands, not a boolean
+        Label end = new Label();
+        compileObject(expr.left);
+        mv.visitInsn(DUP);
+        invokeRuntime("isTruthy","(" + OBJECT + ")Z");
+        mv.visitJumpInsn(expr.operator.type == TokenType.OR ? IFNE : IFEQ,end);
+        mv.visitInsn(POP);
+        compileObject(expr.right);
+        mv.visitLabel(end);
+        return Kind.OBJECT;
+    }
+
+    @Override
+    public Kind visitSetExpr(Expr.Set expr) {
+        compileObject(expr.object);
+        loadToken(expr.name);
+        invokeRuntime("instanceForSet","(" + OBJECT + TOKEN + ")LLoxInstance;");
+        loadConstant(expr,"LExpr$Set;");
+        compileObject(expr.value);
+        invokeRuntime("setProperty","(LLoxInstance;LExpr$Set;" + OBJECT + ")" + OBJECT);
+        return Kind.OBJECT;
+    }
+
+    @Override
+    public Kind visitSuperExpr(Expr.Super expr) {
+        loadVariable(expr,expr.keyword);
+        loadVariable(expr.receiver,expr.keyword);
+        loadConstant(expr,"LExpr$Super;");
+        invokeRuntime("superMethod","(" + OBJECT + OBJECT + "LExpr$Super;)" + OBJECT);
+        return Kind.OBJECT;
+    }
+
+    @Override
+    public Kind visitThisExpr(Expr.This expr) {
+        return loadVariable(expr,expr.keyword);
+    }
+
+    @Override
+    public Kind visitUnaryExpr(Expr.Unary expr) {
+        if(expr.operator.type == TokenType.BANG){
+            toBoolean(compile(expr.right));
+            mv.visitInsn(ICONST_1);
+            mv.visitInsn(IXOR);
+            return Kind.BOOLEAN;
+        }
+        Kind kind = compile(expr.right);
+        if(kind != Kind.DOUBLE){
+            toObject(kind);
+            loadToken(expr.operator);
+            invokeRuntime("number","(" + OBJECT + TOKEN + ")D");
+        }
+        mv.visitInsn(DNEG);
+        return Kind.DOUBLE;
+    }
+
+    @Override
+    public Kind visitVariableExpr(Expr.Variable expr) {
+        return loadVariable(expr,expr.name);
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        pop(compile(stmt.expression));
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        mv.visitVarInsn(ALOAD,INTERPRETER);
+        compileObject(stmt.expression);
+        invokeRuntime("print","(LInterpreter;" + OBJECT + ")V");
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if(stmt.slot == Stmt.Declaration.GLOBAL){
+            mv.visitVarInsn(ALOAD,INTERPRETER);
+            //the slot is the program's own, the same in every run of it, so it is a constant in the code
+            pushInt(stmt.globalSlot);
+            if(stmt.initializer != null){
+                compileObject(stmt.initializer);
+            } else {
+                mv.visitInsn(ACONST_NULL);
+            }
+            invokeRuntime("defineGlobal","(LInterpreter;I" + OBJECT + ")V");
+            return null;
+        }
+
+        if(stmt.initializer != null){
+            compileObject(stmt.initializer);
+        } else {
+            mv.visitInsn(ACONST_NULL);
+        }
+        mv.visitVarInsn(ASTORE,FRAME + stmt.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        Label elseBranch = new Label();
+        Label end = new Label();
+        branch(stmt.condition,elseBranch,false);
+        compile(stmt.thenBranch);
+        mv.visitJumpInsn(GOTO,end);
+        mv.visitLabel(elseBranch);
+        compile(stmt.elseBranch);
+        mv.visitLabel(end);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        for(Stmt s: stmt.statements){
+            compile(s);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        Label start = new Label();
+        Label end = new Label();
+        mv.visitLabel(start);
+        branch(stmt.condition,end,false);
+        mv.visitVarInsn(ALOAD,INTERPRETER);
+        loadToken(stmt.keyword);
+        invokeRuntime("step","(LInterpreter;" + TOKEN + ")V");
+        compile(stmt.body);
+        mv.visitJumpInsn(GOTO,start);
+        mv.visitLabel(end);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        throw new IllegalStateException("Function declarations are never compiled");
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if(stmt.value != null){
+            compileObject(stmt.value);
+        } else {
+            mv.visitInsn(ACONST_NULL);
+        }
+        mv.visitInsn(ARETURN);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        throw new IllegalStateException("Class declarations are never compiled");
+    }
+}
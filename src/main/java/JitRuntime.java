@@ -0,0 +1,94 @@
+import java.util.Arrays;
+
+//the slow paths JIT compiled code calls into, they mirror what the Interpreter does
+final class JitRuntime {
+
+    private JitRuntime() {}
+
+    public static Object getGlobal(Interpreter interpreter, Token name, int slot) {
+        return interpreter.globals.getGlobal(slot,name);
+    }
+
+    public static void assignGlobal(Interpreter interpreter, Token name, int slot, Object value) {
+        interpreter.globals.assignGlobal(slot,name,value);
+    }
+
+    public static void defineGlobal(Interpreter interpreter, int slot, Object value) {
+        interpreter.globals.defineGlobal(slot,value);
+    }
+
+    public static Object add(Interpreter interpreter, Object left, Object right, Token operator) {
+        Object sum = LoxValues.add(left,right);
+        if(interpreter.sandbox != null && LoxValues.isString(sum)) interpreter.sandbox.allocate(operator);
+        if(sum != null) return sum;
+        throw new RuntimeError(operator,"Operands must be two numbers or two strings.");
+    }
+
+    public static RuntimeError operandsMustBeNumbers(Token operator) {
+        return new RuntimeError(operator,"Operands must be numbers.");
+    }
+
+    public static double number(Object operand, Token operator) {
+        if(operand instanceof Double) return (double)operand;
+        throw new RuntimeError(operator,"Operand must be a number.");
+    }
+
+    //every iteration of a compiled loop, a field load and a null check when the run has no budget
+    public static void step(Interpreter interpreter, Token keyword) {
+        Sandbox sandbox = interpreter.sandbox;
+        if(sandbox != null) sandbox.step(keyword);
+    }
+
+    public static boolean isTruthy(Object value) {
+        return LoxValues.isTruthy(value);
+    }
+
+    public static boolean isEqual(Object a, Object b) {
+        return LoxValues.isEqual(a,b);
+    }
+
+    public static Object call(Interpreter interpreter, Object callee, Object[] arguments, Token paren) {
+        return interpreter.call(callee,Arrays.asList(arguments),paren);
+    }
+
+    //the method obj.name(...) runs without binding it, null when it is a field or obj isn't an instance
+    public static LoxFunction method(Object object, Expr.Get expr) {
+        if(!(object instanceof LoxInstance)) return null;
+        return expr.cache.method((LoxInstance) object,expr.name);
+    }
+
+    public static Object invoke(Interpreter interpreter, Object receiver, LoxFunction method, Object callee,
+                                Object[] arguments, Token paren) {
+        if(method == null) return interpreter.call(callee,Arrays.asList(arguments),paren);
+        return interpreter.invokeMethod(method,(LoxInstance) receiver,Arrays.asList(arguments),paren);
+    }
+
+    public static Object getProperty(Object object, Expr.Get expr) {
+        return Interpreter.getProperty(object,expr);
+    }
+
+    public static LoxInstance instanceForSet(Object object, Token name) {
+        if(!(object instanceof LoxInstance)){
+            throw new RuntimeError(name,"Only instances have fields");
+        }
+        return (LoxInstance) object;
+    }
+
+    public static Object setProperty(LoxInstance instance, Expr.Set expr, Object value) {
+        expr.cache.set(instance,expr.name,value);
+        return value;
+    }
+
+    public static Object superMethod(Object superclass, Object receiver, Expr.Super expr) {
+        return Interpreter.superMethod(superclass,receiver,expr);
+    }
+
+    public static void print(Interpreter interpreter, Object value) {
+        interpreter.print(value);
+    }
+
+    //false when the statement was a return, which ends the script like it does in the Interpreter
+    public static boolean execute(Interpreter interpreter, Stmt stmt) {
+        return interpreter.execute(stmt) == Completion.NORMAL;
+    }
+}
@@ -1,53 +1,118 @@
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
 
-public class Lexer {
+public class Lexer implements TokenSource {
 
-    private final String sourceCode;
-    private final List<Token> tokens = new ArrayList<>();
+    private final CharSequence sourceCode;
+    //where this lexer stops, the end of the source unless it lexes only a slice of it
+    private final int end;
+    //the token the last scanToken produced, scanning stops once there is one
+    private Token scanned;
+    private Token eof;
     private int start = 0;
     private int current = 0;
     private int line = 1;
+    //where the current line starts and the column of the token being scanned
+    private int lineStart = 0;
+    private int column = 1;
+    //when scanning into a buffer, tokens are appended there instead of becoming objects
+    private TokenBuffer buffer;
     private LoxErrorHandler errorHandler = new LoxStdOutErrorHandler();
-    private static final Map<String,TokenType> keywords;
+    //the text of each keyword, shared by all its tokens. matching keywords is left to the switch in keywordType
+    private static final Map<TokenType,String> keywordLexemes = new EnumMap<>(TokenType.class);
 
     static {
-        keywords = new HashMap<>();
-        keywords.put("and",TokenType.AND);
-        keywords.put("class",TokenType.CLASS);
-        keywords.put("else",TokenType.ELSE);
-        keywords.put("false",TokenType.FALSE);
-        keywords.put("for",    TokenType.FOR);
-        keywords.put("fun",    TokenType.FUN);
-        keywords.put("if",     TokenType.IF);
-        keywords.put("nil",    TokenType.NIL);
-        keywords.put("or",     TokenType.OR);
-        keywords.put("print",  TokenType.PRINT);
-        keywords.put("return", TokenType.RETURN);
-        keywords.put("super",  TokenType.SUPER);
-        keywords.put("this",   TokenType.THIS);
-        keywords.put("true",   TokenType.TRUE);
-        keywords.put("var",    TokenType.VAR);
-        keywords.put("while",  TokenType.WHILE);
-    }
-
-
-    Lexer(String sourceCode){
+        keywordLexemes.put(TokenType.AND,"and");
+        keywordLexemes.put(TokenType.CLASS,"class");
+        keywordLexemes.put(TokenType.ELSE,"else");
+        keywordLexemes.put(TokenType.FALSE,"false");
+        keywordLexemes.put(TokenType.FOR,"for");
+        keywordLexemes.put(TokenType.FUN,"fun");
+        keywordLexemes.put(TokenType.IF,"if");
+        keywordLexemes.put(TokenType.NIL,"nil");
+        keywordLexemes.put(TokenType.OR,"or");
+        keywordLexemes.put(TokenType.PRINT,"print");
+        keywordLexemes.put(TokenType.RETURN,"return");
+        keywordLexemes.put(TokenType.SUPER,"super");
+        keywordLexemes.put(TokenType.THIS,"this");
+        keywordLexemes.put(TokenType.TRUE,"true");
+        keywordLexemes.put(TokenType.VAR,"var");
+        keywordLexemes.put(TokenType.WHILE,"while");
+    }
+
+
+    //identifiers seen so far, so every distinct name is copied out of the source only once
+    private String[] names = new String[64];
+    private int nameCount = 0;
+    //powers of ten a double holds exactly, for parsing short numbers without a substring
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for(int i = 1; i < POWERS_OF_TEN.length; i++){
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    Lexer(CharSequence sourceCode){
         this.sourceCode = sourceCode;
+        this.end = sourceCode.length();
+    }
+    Lexer(CharSequence sourceCode,LoxErrorHandler errorHandler){
+        this(sourceCode,0,sourceCode.length(),1,errorHandler);
     }
-    Lexer(String sourceCode,LoxErrorHandler errorHandler){
+    //lexes source[from, to), starting the line count at line, tokens keep their offsets into the whole source
+    Lexer(CharSequence sourceCode,int from,int to,int line,LoxErrorHandler errorHandler){
         this.sourceCode = sourceCode;
+        this.current = from;
+        this.end = to;
+        this.line = line;
         this.errorHandler = errorHandler;
+        //a slice can start mid-line, columns still count from the line's real start
+        this.lineStart = from;
+        while(lineStart > 0 && sourceCode.charAt(lineStart - 1) != '\n') lineStart--;
     }
     List<Token> scanTokens() {
+        List<Token> tokens = new ArrayList<>();
+        Token token;
+        do {
+            token = next();
+            tokens.add(token);
+        } while(token.type != TokenType.EOF);
+        return tokens;
+    }
+
+    //scans the whole source into parallel arrays, without a Token object per token
+    TokenBuffer scanBuffer() {
+        buffer = new TokenBuffer(sourceCode,Math.max(16,(end - current) / 4));
         while(!isAtEnd()){
             start = current;
+            column = start - lineStart + 1;
             scanToken();
         }
-        tokens.add(new Token(TokenType.EOF,"",null,line));
-        return tokens;
+        buffer.add(TokenType.EOF,current,0,line,current - lineStart + 1,null);
+        TokenBuffer scannedBuffer = buffer;
+        buffer = null;
+        return scannedBuffer;
+    }
+
+    //scans only as far as the next token, whitespace, comments and bad characters produce none
+    @Override
+    public Token next() {
+        while(!isAtEnd()){
+            start = current;
+            column = start - lineStart + 1;
+            scanToken();
+            if(scanned != null){
+                Token token = scanned;
+                scanned = null;
+                return token;
+            }
+        }
+        if(eof == null) eof = new Token(TokenType.EOF,sourceCode,current,0,"",null,line,current - lineStart + 1);
+        return eof;
     }
     /*
 
@@ -90,7 +155,7 @@ public class Lexer {
                 } else if (match('*')) {
                     //we have a multiline comment
                     while(peek() != '*' && peekNext() !='/' && !isAtEnd()) {
-                        if(peek() == '\n') line++;
+                        if(peek() == '\n') newLine();
                         advance();
                     }
                     //gotta advance the two characters found
@@ -107,6 +172,7 @@ public class Lexer {
                 break;
             case '\n':
                 line++;
+                lineStart = current;
                 break;
             case '"':
                 string();
@@ -127,10 +193,96 @@ public class Lexer {
         //we have already checked that the first character isAlpha(c)
         //that's why we can use isAlphaNumeric
         while (isAlphaNumeric(peek())) advance();
-        String text = sourceCode.substring(start,current);
-        TokenType type = keywords.get(text);
-        if(type == null) type = TokenType.IDENTIFIER;
-        addToken(type);
+        TokenType type = keywordType();
+        String text = type == TokenType.IDENTIFIER ? intern(start,current) : keywordLexemes.get(type);
+        if(buffer != null){
+            buffer.add(type,start,current - start,line,column,type == TokenType.IDENTIFIER ? text : null);
+            return;
+        }
+        scanned = new Token(type,sourceCode,start,current - start,text,null,line,column);
+    }
+
+    //keywords are matched in place, switching on their first letters, so no text is copied to find them
+    private TokenType keywordType() {
+        switch (sourceCode.charAt(start)) {
+            case 'a': return checkKeyword(1,"nd",TokenType.AND);
+            case 'c': return checkKeyword(1,"lass",TokenType.CLASS);
+            case 'e': return checkKeyword(1,"lse",TokenType.ELSE);
+            case 'f':
+                if(current - start > 1){
+                    switch (sourceCode.charAt(start + 1)) {
+                        case 'a': return checkKeyword(2,"lse",TokenType.FALSE);
+                        case 'o': return checkKeyword(2,"r",TokenType.FOR);
+                        case 'u': return checkKeyword(2,"n",TokenType.FUN);
+                    }
+                }
+                break;
+            case 'i': return checkKeyword(1,"f",TokenType.IF);
+            case 'n': return checkKeyword(1,"il",TokenType.NIL);
+            case 'o': return checkKeyword(1,"r",TokenType.OR);
+            case 'p': return checkKeyword(1,"rint",TokenType.PRINT);
+            case 'r': return checkKeyword(1,"eturn",TokenType.RETURN);
+            case 's': return checkKeyword(1,"uper",TokenType.SUPER);
+            case 't':
+                if(current - start > 1){
+                    switch (sourceCode.charAt(start + 1)) {
+                        case 'h': return checkKeyword(2,"is",TokenType.THIS);
+                        case 'r': return checkKeyword(2,"ue",TokenType.TRUE);
+                    }
+                }
+                break;
+            case 'v': return checkKeyword(1,"ar",TokenType.VAR);
+            case 'w': return checkKeyword(1,"hile",TokenType.WHILE);
+        }
+        return TokenType.IDENTIFIER;
+    }
+
+    private TokenType checkKeyword(int offset, String rest, TokenType type) {
+        if(current - start != offset + rest.length()) return TokenType.IDENTIFIER;
+        for(int i = 0; i < rest.length(); i++){
+            if(sourceCode.charAt(start + offset + i) != rest.charAt(i)) return TokenType.IDENTIFIER;
+        }
+        return type;
+    }
+
+    //the same String for every occurrence of a name, shared with other sources through String.intern
+    private String intern(int from, int to) {
+        int hash = 0;
+        for(int i = from; i < to; i++){
+            hash = 31 * hash + sourceCode.charAt(i);
+        }
+        int mask = names.length - 1;
+        int index = (hash ^ (hash >>> 16)) & mask;
+        while(names[index] != null){
+            if(sameText(names[index],from,to)) return names[index];
+            index = (index + 1) & mask;
+        }
+
+        String name = sourceCode.subSequence(from,to).toString().intern();
+        names[index] = name;
+        if(++nameCount * 2 > names.length) growNames();
+        return name;
+    }
+
+    private boolean sameText(String name, int from, int to) {
+        if(name.length() != to - from) return false;
+        for(int i = 0; i < name.length(); i++){
+            if(name.charAt(i) != sourceCode.charAt(from + i)) return false;
+        }
+        return true;
+    }
+
+    private void growNames() {
+        String[] old = names;
+        names = new String[old.length * 2];
+        int mask = names.length - 1;
+        for(String name: old){
+            if(name == null) continue;
+            int hash = name.hashCode();
+            int index = (hash ^ (hash >>> 16)) & mask;
+            while(names[index] != null) index = (index + 1) & mask;
+            names[index] = name;
+        }
     }
 
     private boolean isAlphaNumeric(char c) {
@@ -153,13 +305,35 @@ public class Lexer {
             while (isDigit(peek())) advance();
         }
 
-        addToken(TokenType.NUMBER,Double.parseDouble(sourceCode.substring(start,current)));
+        addToken(TokenType.NUMBER,parseNumber(start,current));
 
     }
+
+    //numbers with at most 15 digits are exact as a long, and dividing by an exact power of ten rounds correctly
+    private double parseNumber(int from, int to) {
+        long digits = 0;
+        int digitCount = 0;
+        int fractionDigits = 0;
+        boolean fraction = false;
+        for(int i = from; i < to; i++){
+            char c = sourceCode.charAt(i);
+            if(c == '.'){
+                fraction = true;
+                continue;
+            }
+            digits = digits * 10 + (c - '0');
+            digitCount++;
+            if(fraction) fractionDigits++;
+        }
+        if(digitCount <= 15 && fractionDigits < POWERS_OF_TEN.length){
+            return digits / POWERS_OF_TEN[fractionDigits];
+        }
+        return Double.parseDouble(sourceCode.subSequence(from,to).toString());
+    }
     private char peekNext() {
         //lookahead of two characters
         //we dont want to allow arbitrarily far lookahead,(i don't know exactly why yet)
-        if (current + 1 >= sourceCode.length()) return '\0';
+        if (current + 1 >= end) return '\0';
         return sourceCode.charAt(current + 1);
     }
 
@@ -169,7 +343,7 @@ public class Lexer {
     private void string(){
         while(peek() != '"' && !isAtEnd()){
           //we support multiline string
-          if(peek() == '\n') line++;
+          if(peek() == '\n') newLine();
           advance();
         }
 
@@ -182,7 +356,7 @@ public class Lexer {
         //also this is where we could unescape characters
         //escaping is: some chars have special meaning,
         //if we escape them no special meaning otherwise use special meaning
-        String value = sourceCode.substring(start+1,current-1);
+        String value = sourceCode.subSequence(start+1,current-1).toString();
         addToken(TokenType.STRING,value);
     }
 
@@ -196,8 +370,21 @@ public class Lexer {
     }
 
     private void addToken(TokenType type, Object literal){
-        String text = sourceCode.substring(start,current);
-        tokens.add(new Token(type,text,literal,line));
+        if(buffer != null){
+            buffer.add(type,start,current - start,line,column,literal);
+            return;
+        }
+        scanned = new Token(type,sourceCode,start,current - start,null,literal,line,column);
+    }
+
+    //for newlines inside a token, peek() is the newline
+    private void newLine() {
+        line++;
+        lineStart = current + 1;
+    }
+
+    static String keywordLexeme(TokenType type) {
+        return keywordLexemes.get(type);
     }
 
     private char advance(){
@@ -205,6 +392,6 @@ public class Lexer {
     }
 
     boolean isAtEnd() {
-        return current >= sourceCode.length();
+        return current >= end;
     }
 }
@@ -1,15 +1,44 @@
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 public class LoxClass implements LoxCallable{
 
     final String name;
-    final Map<String,LoxFunction> methods;
     final LoxClass superclass;
+    //own and inherited methods, copied down from the superclass when the class is created
+    private final Map<String,LoxFunction> methods;
+    //the same table keyed by the id Names gave each method name, open addressed with linear probing.
+    //ids are handed out across the whole JVM, so the table is sized by the class's own method count
+    private final int[] methodIds;
+    private final LoxFunction[] methodsById;
+    private final LoxFunction initializer;
+    //the shape of an instance before any field is set
+    final Shape rootShape = new Shape(this);
     public LoxClass(String name, LoxClass superclass, Map<String, LoxFunction> methods) {
         this.name = name;
         this.superclass = superclass;
-        this.methods = methods;
+
+        Map<String,LoxFunction> table = new HashMap<>();
+        if(superclass != null) table.putAll(superclass.methods);
+        table.putAll(methods);
+        this.methods = Collections.unmodifiableMap(table);
+
+        //at most half full, so a miss stops at an empty slot soon
+        int size = Integer.highestOneBit(Math.max(1,table.size()) * 2 - 1) << 1;
+        methodIds = new int[size];
+        Arrays.fill(methodIds,-1);
+        methodsById = new LoxFunction[size];
+        for(Map.Entry<String,LoxFunction> method: table.entrySet()){
+            int id = Names.idOf(method.getKey());
+            int index = id & (size - 1);
+            while(methodIds[index] != -1) index = (index + 1) & (size - 1);
+            methodIds[index] = id;
+            methodsById[index] = method.getValue();
+        }
+        initializer = table.get("init");
     }
 
     @Override
@@ -20,29 +49,27 @@ public class LoxClass implements LoxCallable{
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
         LoxInstance instance = new LoxInstance(this);
-        LoxFunction initializer = findMethod("init");
         if(initializer != null) {
-            initializer.bind(instance).call(interpreter,arguments);
+            initializer.callMethod(interpreter,instance,arguments);
         }
         return instance;
     }
 
     @Override
     public int arity() {
-        LoxFunction initializer = findMethod("init");
         if(initializer == null) return 0;
         return initializer.arity();
     }
 
     public LoxFunction findMethod(String name) {
-        if(methods.containsKey(name)){
-            return methods.get(name);
-        }
+        return methods.get(name);
+    }
 
-        if(superclass != null) {
-            return superclass.findMethod(name);
+    LoxFunction findMethod(int nameId) {
+        int mask = methodIds.length - 1;
+        for(int index = nameId & mask; methodIds[index] != -1; index = (index + 1) & mask){
+            if(methodIds[index] == nameId) return methodsById[index];
         }
-
         return null;
     }
 }
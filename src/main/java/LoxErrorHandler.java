@@ -1,4 +1,5 @@
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 abstract class LoxErrorHandler {
@@ -8,12 +9,16 @@ abstract class LoxErrorHandler {
     abstract void error(Token token,String msg);
     abstract void report(int line,String location,String err);
     abstract void runtimeError(RuntimeError error);
-    protected List<String> errorMessages = new ArrayList<>();
+    //a handler can be shared by scripts running on several threads at once
+    protected List<String> errorMessages = Collections.synchronizedList(new ArrayList<>());
 
     public List<String> getErrorMessages() { return errorMessages;}
-    private boolean hadError = false;
-    private boolean hadRuntimeError = false;
+    private volatile boolean hadError = false;
+    private volatile boolean hadRuntimeError = false;
 
     public boolean hadError() {return hadError;}
     public boolean hadRuntimeError() {return hadRuntimeError;}
+
+    protected void markError() {hadError = true;}
+    protected void markRuntimeError() {hadRuntimeError = true;}
 }
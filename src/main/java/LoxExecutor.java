@@ -0,0 +1,58 @@
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+//runs compiled scripts concurrently, on a virtual thread each when the JVM has them and on a pool with
+//a thread per core when it doesn't. runs share the script's compiled code and nothing else
+public final class LoxExecutor implements AutoCloseable {
+
+    private final ExecutorService executor;
+    private final boolean virtualThreads;
+
+    public LoxExecutor() {
+        ExecutorService virtual = virtualThreadExecutor();
+        this.virtualThreads = virtual != null;
+        this.executor = virtual != null ? virtual : Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    public LoxExecutor(ExecutorService executor) {
+        this.executor = executor;
+        this.virtualThreads = false;
+    }
+
+    //looked up reflectively since the build targets 17, where they don't exist yet
+    private static ExecutorService virtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    public boolean usesVirtualThreads() {
+        return virtualThreads;
+    }
+
+    //completes with what run returns, false when a runtime error stopped the script
+    public CompletableFuture<Boolean> submit(CompiledScript script) {
+        return CompletableFuture.supplyAsync(script::run,executor);
+    }
+
+    public CompletableFuture<Boolean> submit(CompiledScript script, PrintHandler printHandler, LoxErrorHandler errorHandler) {
+        return CompletableFuture.supplyAsync(() -> script.run(printHandler,errorHandler),executor);
+    }
+
+    //waits for the scripts already submitted to finish, an interrupt stops the waiting and stays set
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            while(!executor.awaitTermination(1,TimeUnit.MINUTES)) {
+                //scripts can run for as long as they like
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -3,31 +3,72 @@ import java.util.List;
 public class LoxFunction implements LoxCallable{
 
     private final Stmt.Function declaration;
-    private final Environment closure;
+    //the cells of the enclosing variables the function uses, the rest of the enclosing frames isn't kept alive
+    private final Cell[] upvalues;
     private final boolean isInitializer;
-    public LoxFunction(Stmt.Function declaration,Environment closure,boolean isInitializer) {
+    //this of a bound method, null otherwise
+    private final LoxInstance receiver;
+    public LoxFunction(Stmt.Function declaration,Cell[] upvalues,boolean isInitializer) {
+        this(declaration,upvalues,isInitializer,null);
+    }
+
+    private LoxFunction(Stmt.Function declaration,Cell[] upvalues,boolean isInitializer,LoxInstance receiver) {
         this.declaration = declaration;
-        this.closure = closure;
+        this.upvalues = upvalues;
         this.isInitializer = isInitializer;
+        this.receiver = receiver;
     }
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
-        Environment environment = new Environment(closure);
-        for (int i = 0; i < declaration.params.size(); i++) {
-            environment.define(declaration.params.get(i).lexeme,
-                    arguments.get(i));
-        }
+        return call(interpreter,receiver,arguments);
+    }
+
+    //runs the method with receiver as this, without the LoxFunction bind() would create
+    Object callMethod(Interpreter interpreter, LoxInstance receiver, List<Object> arguments) {
+        return call(interpreter,receiver,arguments);
+    }
 
+    private Object call(Interpreter interpreter, LoxInstance receiver, List<Object> arguments) {
         try {
-            interpreter.executeBlock(declaration.body, environment);
-        } catch(Return returnVal){
-            if(isInitializer) return closure.getAt(0,"this");
-            return returnVal.value;
+            Sandbox sandbox = interpreter.sandbox;
+            if(sandbox == null) return run(interpreter,receiver,arguments);
+            sandbox.enter(declaration.name);
+            Object value = run(interpreter,receiver,arguments);
+            sandbox.exit();
+            return value;
+        } catch (StackOverflowError e) {
+            //deep recursion ends the run with a runtime error, like the VM's frame limit, instead of escaping it.
+            //if even the error doesn't fit on the stack, a call further out makes it
+            throw new RuntimeError(declaration.name,"Stack overflow.");
+        }
+    }
+
+    private Object run(Interpreter interpreter, LoxInstance receiver, List<Object> arguments) {
+        JitCode code = JitCompiler.codeFor(declaration,interpreter.jitThreshold);
+        if(code != null){
+            Object value = code.invoke(interpreter,upvalues,receiver,arguments);
+            if(isInitializer) return receiver;
+            return value;
+        }
+
+        //one frame for every local of the call, slot zero is this, the Resolver leaves it unnamed in functions that aren't methods
+        Object[] frame = new Object[declaration.frameSize];
+        frame[0] = receiver;
+        for (int i = 0; i < declaration.params.size(); i++) {
+            frame[i + 1] = arguments.get(i);
+        }
+        for(int slot: declaration.cells){
+            frame[slot] = new Cell(frame[slot]);
         }
 
-        if(isInitializer) return closure.getAt(0,"this");
-        return null;
+        Completion completion = interpreter.executeFunction(declaration.body,frame,upvalues);
+        if(isInitializer) return receiver;
+        return completion.value;
+    }
+
+    Stmt.Function declaration() {
+        return declaration;
     }
 
     @Override
@@ -37,12 +78,10 @@ public class LoxFunction implements LoxCallable{
 
     @Override
     public String toString() {
-        return "<fn " + declaration.name.lexeme + ">";
+        return "<fn " + declaration.name.lexeme() + ">";
     }
 
     public LoxFunction bind(LoxInstance instance) {
-        Environment env = new Environment(closure);
-        env.define("this",instance);
-        return new LoxFunction(declaration,env,isInitializer);
+        return new LoxFunction(declaration,upvalues,isInitializer,instance);
     }
 }
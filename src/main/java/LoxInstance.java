@@ -1,31 +1,32 @@
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 public class LoxInstance {
-    private LoxClass klass;
-    private final Map<String, Object> fields = new HashMap<>();
+    private static final Object[] NO_FIELDS = new Object[0];
+
+    private final LoxClass klass;
+    //where each field lives in fields, instances move to a new shape when they get a new field
+    Shape shape;
+    private Object[] fields = NO_FIELDS;
 
     public LoxInstance(LoxClass klass) {
         this.klass = klass;
+        this.shape = klass.rootShape;
     }
 
-    Object get(Token name) {
-        if(fields.containsKey(name.lexeme)){
-            return fields.get(name.lexeme);
-        }
-
-        LoxFunction method = klass.findMethod(name.lexeme);
-        if(method != null) return method.bind(this);
+    Object field(int slot) {
+        return fields[slot];
+    }
 
-        throw new RuntimeError(name,"Undefined property '" + name.lexeme + "' .");
+    void setField(Shape next, int slot, Object value) {
+        if(slot >= fields.length){
+            fields = Arrays.copyOf(fields,Math.max(4,fields.length * 2));
+        }
+        shape = next;
+        fields[slot] = value;
     }
 
     @Override
     public String toString() {
         return klass.name + " instance";
     }
-
-    public void set(Token name, Object value) {
-        fields.put(name.lexeme,value);
-    }
 }
@@ -1,15 +1,32 @@
 import java.io.IOException;
-import java.nio.charset.Charset;
-import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
 
 public class LoxRunner {
 
+    public enum Engine {
+        TREE_WALKER,
+        BYTECODE_VM,
+        //the tree-walker, compiling functions to JVM bytecode once they get hot
+        JIT
+    }
+
     private Optional<LoxErrorHandler> errorHandler = Optional.empty();
     private Optional<PrintHandler> printHandler = Optional.empty();
+    private Engine engine = Engine.TREE_WALKER;
+    private int jitThreshold = 50;
+    //when set, large sources are lexed and parsed in slices on this pool
+    private ForkJoinPool parsePool;
+    //limits every run of every script this runner compiles
+    private Budget budget = Budget.NONE;
+    //when set, resolved programs are kept on disk and reused for the same source
+    private AstCache cache;
     public LoxRunner withErrorHandler(LoxErrorHandler errorHandler){
         this.errorHandler = Optional.of(errorHandler);
         return this;
@@ -20,28 +37,111 @@ public class LoxRunner {
         return this;
     }
 
+    public LoxRunner withEngine(Engine engine){
+        this.engine = engine;
+        return this;
+    }
+
+    //how many calls a function gets in the JIT engine before it is compiled, 0 compiles everything up front
+    public LoxRunner withJitThreshold(int jitThreshold){
+        this.jitThreshold = jitThreshold;
+        return this;
+    }
+
+    //lexes and parses large sources a top-level declaration range at a time on the common pool
+    public LoxRunner withParallelParsing(boolean parallel){
+        this.parsePool = parallel ? ForkJoinPool.commonPool() : null;
+        return this;
+    }
+
+    public LoxRunner withParallelParsing(ForkJoinPool pool){
+        this.parsePool = pool;
+        return this;
+    }
+
+    //the most loop iterations plus calls a run may make before it is stopped with a runtime error
+    public LoxRunner withStepLimit(long steps){
+        this.budget = budget.withSteps(steps);
+        return this;
+    }
+
+    //how deep calls may nest, set it for untrusted scripts so deep recursion can't overflow the JVM stack
+    public LoxRunner withCallDepthLimit(int depth){
+        this.budget = budget.withCallDepth(depth);
+        return this;
+    }
+
+    //how many instances, classes, closures and concatenated strings a run may create
+    public LoxRunner withAllocationLimit(long allocations){
+        this.budget = budget.withAllocations(allocations);
+        return this;
+    }
+
+    //how long a run may take, checked every so many steps rather than exactly
+    public LoxRunner withTimeLimit(Duration limit){
+        this.budget = budget.withTimeNanos(limit.toNanos());
+        return this;
+    }
+
+    //keeps resolved programs under directory, keyed by a hash of their source, so a rerun skips the front end
+    public LoxRunner withCacheDirectory(Path directory){
+        this.cache = directory == null ? null : new AstCache(directory);
+        return this;
+    }
 
     public void runJloxFile(String filename) throws IOException {
-        byte[] bytes = Files.readAllBytes(Paths.get(filename));
-        run(new String(bytes, Charset.defaultCharset()));
+        run(SourceFiles.map(Paths.get(filename)));
+    }
+
+    //compiles and runs once, errors go to the error handler and never end the JVM
+    public void run(CharSequence code){
+        CompiledScript script;
+        try {
+            script = compile(code);
+        } catch (CompileError e) {
+            return;
+        }
+        script.run();
     }
 
-    public void run(String code){
+    //lexes, parses and resolves once, the result runs as often as needed with this runner's engine and handlers,
+    //throws a CompileError when the front end reported errors
+    public CompiledScript compile(CharSequence code){
         LoxErrorHandler errorHandler = this.errorHandler.orElse(new LoxStdOutErrorHandler());
         PrintHandler printHandler = this.printHandler.orElse(new StdOutPrintHandler());
-        Interpreter interpreter = new Interpreter(errorHandler,printHandler);
-        Lexer lexer = new Lexer(code,errorHandler);
-        List<Token> tokens = lexer.scanTokens();
-        Parser parser = new Parser(tokens,errorHandler);
-        List<Stmt> statements = parser.parse();
-
-        if(errorHandler.hadError()) System.exit(65);
-        Resolver resolver = new Resolver(interpreter);
-        resolver.resolve(statements);
-        if(errorHandler.hadError()) return;
-
-        interpreter.interpret(statements);
-        if(errorHandler.hadRuntimeError()) System.exit(70);
+        List<Stmt> statements = cache == null ? null : cache.load(code);
+        if(statements == null){
+            int errors = errorHandler.getErrorMessages().size();
+            statements = parse(code,errorHandler);
+            //a tree with parse errors has holes the Resolver can't walk
+            checkErrors(errorHandler,errors);
+            new Resolver(errorHandler).resolve(statements);
+            checkErrors(errorHandler,errors);
+            CompiledScript script = new CompiledScript(statements,engine,jitThreshold,budget,errorHandler,printHandler);
+            //the bytecode compiler has limits of its own
+            checkErrors(errorHandler,errors);
+            //only programs the front end had nothing to say about are worth keeping
+            if(cache != null) cache.store(code,statements);
+            return script;
+        }
+        return new CompiledScript(statements,engine,jitThreshold,budget,errorHandler,printHandler);
+    }
+
+    //throws a CompileError with what the handler got after its first errors messages
+    private static void checkErrors(LoxErrorHandler errorHandler, int errors){
+        List<String> messages = errorHandler.getErrorMessages();
+        if(messages.size() > errors) throw new CompileError(new ArrayList<>(messages.subList(errors,messages.size())));
+    }
+
+    private List<Stmt> parse(CharSequence code, LoxErrorHandler errorHandler){
+        if(parsePool != null) return new ParallelParser(code,errorHandler,parsePool).parse();
+        //the parser pulls tokens from the lexer as it goes instead of waiting for the whole list
+        return new Parser(new Lexer(code,errorHandler),errorHandler).parse();
+    }
+
+    //runs statements that have already been parsed and resolved on the selected engine
+    void execute(List<Stmt> statements){
+        new CompiledScript(statements,engine,jitThreshold,budget,errorHandler.orElse(new LoxStdOutErrorHandler()),printHandler.orElse(new StdOutPrintHandler())).run();
     }
 
     public static void run(String code, Map<String,Boolean> options){
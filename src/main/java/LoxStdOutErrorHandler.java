@@ -2,21 +2,20 @@ import java.util.ArrayList;
 import java.util.List;
 
 public class LoxStdOutErrorHandler extends LoxErrorHandler {
-    static boolean hadError = false;
-    static boolean hadRuntimeError = false;
 
 
     public void error(int line, String err){
         String msg = "Error in line: " + line + "with message: " + err;
         System.out.println(msg);
         errorMessages.add(msg);
+        markError();
     }
 
     public void error(Token token,String msg){
         if(token.type == TokenType.EOF){
             report(token.line,"at end ",msg);
         } else {
-            report(token.line, " at '" + token.lexeme + "'", msg);
+            report(token.line, " at '" + token.lexeme() + "'", msg);
         }
     }
 
@@ -24,7 +23,7 @@ public class LoxStdOutErrorHandler extends LoxErrorHandler {
         String msg = "Error in line: " + line + "at " + location + " with message: " + err;
         System.out.println(msg);
         errorMessages.add(msg);
-        hadError = true;
+        markError();
     }
 
     public void runtimeError(RuntimeError error) {
@@ -32,6 +31,6 @@ public class LoxStdOutErrorHandler extends LoxErrorHandler {
                 "\n[line " + error.token.line + "]";
         System.err.println(msg);
         errorMessages.add(msg);
-        hadRuntimeError = true;
+        markRuntimeError();
     }
 }
@@ -0,0 +1,90 @@
+//value semantics shared by every execution engine
+final class LoxValues {
+
+    //boxes for the small integers loops and counters keep producing
+    private static final int SMALL_MIN = -128;
+    private static final int SMALL_MAX = 1023;
+    private static final Double[] SMALL_DOUBLES = new Double[SMALL_MAX - SMALL_MIN + 1];
+
+    static {
+        for(int i = 0; i < SMALL_DOUBLES.length; i++){
+            SMALL_DOUBLES[i] = (double) (i + SMALL_MIN);
+        }
+    }
+
+    private LoxValues() {}
+
+    //Double.valueOf doesn't cache, so arithmetic results go through here
+    static Double box(double value){
+        int small = (int) value;
+        //-0.0 compares equal to 0 but has to keep its sign
+        if(small == value && small >= SMALL_MIN && small <= SMALL_MAX
+                && (small != 0 || Double.doubleToRawLongBits(value) == 0L)){
+            return SMALL_DOUBLES[small - SMALL_MIN];
+        }
+        return value;
+    }
+
+    static boolean isTruthy(Object object){
+        //false and nil are falsey, and everything else is truthy
+        if(object == null) return false;
+        if(object instanceof Boolean) return (boolean)object;
+        return true;
+    }
+
+    static boolean isEqual(Object a,Object b){
+        if (a == null && b == null) return true;
+        if (a == null) return false;
+        //a rope equals the String with the same characters
+        if (a instanceof Rope) a = a.toString();
+        if (b instanceof Rope) b = b.toString();
+        return a.equals(b);
+    }
+
+    //the + operator, null when the operands can't be added
+    static Object add(Object left, Object right){
+        if(left instanceof Double && right instanceof Double){
+            return box((double)left + (double)right);
+        }
+
+        if(isString(left) && isString(right)){
+            return Rope.concat((CharSequence)left,(CharSequence)right);
+        }
+        //implements "str" + 4 == "str4", 4 + "str" == "4str"
+        if(isString(left)){
+            return Rope.concat((CharSequence)left,String.valueOf(right));
+        }
+
+        if(isString(right)){
+            return Rope.concat(String.valueOf(left),(CharSequence)right);
+        }
+        return null;
+    }
+
+    //a Lox string is either a String or a Rope
+    static boolean isString(Object object){
+        return object instanceof String || object instanceof Rope;
+    }
+
+    static String stringify(Object object){
+        if(object == null) return "nil";
+
+        if (object instanceof Double) {
+            String text = object.toString();
+            if (text.endsWith(".0")) {
+                text = text.substring(0, text.length() - 2);
+            }
+            return text;
+        }
+
+        if (object instanceof String) {
+            return (String)object;
+        }
+
+        if (object instanceof Rope) {
+            return object.toString();
+        }
+
+        return object.toString();
+    }
+}
@@ -0,0 +1,16 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//interned identifiers, every distinct name gets a small id that method tables are indexed by
+final class Names {
+
+    private static final Map<String,Integer> ids = new ConcurrentHashMap<>();
+    private static final AtomicInteger nextId = new AtomicInteger();
+
+    private Names() {}
+
+    static int idOf(String name) {
+        return ids.computeIfAbsent(name,n -> nextId.getAndIncrement());
+    }
+}
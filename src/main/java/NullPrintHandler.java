@@ -0,0 +1,6 @@
+//drops everything a program prints, for benchmarks and embedders that only want the side effects
+public class NullPrintHandler extends PrintHandler{
+    @Override
+    public void print(String message) {
+    }
+}
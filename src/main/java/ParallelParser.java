@@ -0,0 +1,162 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+
+//lexes and parses a large source in slices on a ForkJoinPool, a slice only ever ends right before a top-level
+//fun or class, so every slice holds whole declarations and parses exactly as it would inside the whole source
+final class ParallelParser {
+
+    //below this many characters a slice isn't worth a task of its own
+    static final int MIN_SLICE = 16 * 1024;
+
+    private final CharSequence source;
+    private final LoxErrorHandler errorHandler;
+    private final ForkJoinPool pool;
+
+    ParallelParser(CharSequence source, LoxErrorHandler errorHandler, ForkJoinPool pool) {
+        this.source = source;
+        this.errorHandler = errorHandler;
+        this.pool = pool;
+    }
+
+    List<Stmt> parse() {
+        List<Slice> slices = split(Math.max(MIN_SLICE,source.length() / (pool.getParallelism() * 4)));
+        if(slices.size() == 1){
+            return new Parser(new Lexer(source,errorHandler),errorHandler).parse();
+        }
+
+        List<ForkJoinTask<Slice>> tasks = new ArrayList<>(slices.size());
+        for(Slice slice: slices){
+            tasks.add(pool.submit(slice::parse));
+        }
+        //stitched back in source order, and so are the errors each slice reported
+        List<Stmt> statements = new ArrayList<>();
+        for(ForkJoinTask<Slice> task: tasks){
+            Slice slice = task.join();
+            slice.errors.replayTo(errorHandler);
+            statements.addAll(slice.statements);
+        }
+        return statements;
+    }
+
+    //walks the source just closely enough to know the brace and paren depth, skipping strings and comments
+    //the same way the Lexer does, and cuts once a slice is long enough and a top-level declaration starts
+    List<Slice> split(int sliceLength) {
+        List<Slice> slices = new ArrayList<>();
+        int length = source.length();
+        int sliceStart = 0;
+        int sliceLine = 1;
+        int line = 1;
+        int depth = 0;
+        //whether the last thing scanned ended a statement, ';' or '}'
+        boolean afterStatement = true;
+        int i = 0;
+        while(i < length){
+            char c = source.charAt(i);
+            if(c == '\n'){
+                line++;
+                i++;
+            } else if(c == ' ' || c == '\r' || c == '\t'){
+                i++;
+            } else if(c == '/' && i + 1 < length && source.charAt(i + 1) == '/'){
+                while(i < length && source.charAt(i) != '\n') i++;
+            } else if(c == '/' && i + 1 < length && source.charAt(i + 1) == '*'){
+                i += 2;
+                while(i < length && source.charAt(i) != '*' && (i + 1 >= length || source.charAt(i + 1) != '/')){
+                    if(source.charAt(i) == '\n') line++;
+                    i++;
+                }
+                i += 2;
+            } else if(c == '"'){
+                i++;
+                while(i < length && source.charAt(i) != '"'){
+                    if(source.charAt(i) == '\n') line++;
+                    i++;
+                }
+                i++;
+                afterStatement = false;
+            } else if(isAlpha(c)){
+                int wordStart = i;
+                while(i < length && (isAlpha(source.charAt(i)) || isDigit(source.charAt(i)))) i++;
+                if(depth == 0 && afterStatement && wordStart - sliceStart >= sliceLength
+                        && (isWord(wordStart,i,"fun") || isWord(wordStart,i,"class"))){
+                    slices.add(new Slice(sliceStart,wordStart,sliceLine));
+                    sliceStart = wordStart;
+                    sliceLine = line;
+                }
+                afterStatement = false;
+            } else {
+                if(c == '{' || c == '(') depth++;
+                else if(c == '}' || c == ')') depth--;
+                afterStatement = depth == 0 && (c == ';' || c == '}');
+                i++;
+            }
+        }
+        slices.add(new Slice(sliceStart,length,sliceLine));
+        return slices;
+    }
+
+    private boolean isWord(int from, int to, String word) {
+        if(to - from != word.length()) return false;
+        for(int i = 0; i < word.length(); i++){
+            if(source.charAt(from + i) != word.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private static boolean isAlpha(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    final class Slice {
+        final int from;
+        final int to;
+        final int line;
+        final BufferedErrorHandler errors = new BufferedErrorHandler();
+        List<Stmt> statements;
+
+        Slice(int from, int to, int line) {
+            this.from = from;
+            this.to = to;
+            this.line = line;
+        }
+
+        Slice parse() {
+            statements = new Parser(new Lexer(source,from,to,line,errors),errors).parse();
+            return this;
+        }
+    }
+
+    //holds on to a slice's errors so they reach the real handler on one thread, in source order
+    static final class BufferedErrorHandler extends LoxErrorHandler {
+        private final List<Consumer<LoxErrorHandler>> reported = new ArrayList<>();
+
+        void error(int line, String err) {
+            reported.add(handler -> handler.error(line,err));
+        }
+
+        void error(Token token, String msg) {
+            reported.add(handler -> handler.error(token,msg));
+        }
+
+        void report(int line, String location, String err) {
+            reported.add(handler -> handler.report(line,location,err));
+        }
+
+        void runtimeError(RuntimeError error) {
+            reported.add(handler -> handler.runtimeError(error));
+        }
+
+        void replayTo(LoxErrorHandler handler) {
+            for(Consumer<LoxErrorHandler> error: reported){
+                error.accept(handler);
+            }
+        }
+    }
+}
@@ -4,16 +4,28 @@ import java.util.List;
 
 
 public class Parser {
-    private final List<Token> tokens;
-    private int current = 0;
+    private final TokenSource tokens;
+    //the parser looks at most one token ahead and one back, so those are the only tokens it holds on to
+    private Token current;
+    private Token previous;
     private LoxErrorHandler errorHandler = new LoxStdOutErrorHandler();
 
     private static class ParseError extends RuntimeException{};
     Parser(List<Token> tokens) {
-        this.tokens = tokens;
+        this(TokenSource.of(tokens));
     }
     Parser(List<Token> tokens,LoxErrorHandler errorHandler){
+        this(TokenSource.of(tokens),errorHandler);
+    }
+    Parser(TokenBuffer tokens,LoxErrorHandler errorHandler){
+        this(tokens.tokens(),errorHandler);
+    }
+    Parser(TokenSource tokens) {
         this.tokens = tokens;
+        this.current = tokens.next();
+    }
+    Parser(TokenSource tokens,LoxErrorHandler errorHandler){
+        this(tokens);
         this.errorHandler = errorHandler;
     }
 
@@ -199,6 +211,7 @@ public class Parser {
     }
 
     private Stmt forStatement() {
+        Token keyword = previous();
         consume(TokenType.LEFT_PAREN,"Expect '(' after 'for'.");
         Stmt initializer;
         if(match(TokenType.SEMICOLON)){
@@ -229,7 +242,7 @@ public class Parser {
         }
 
         if(condition == null) condition = new Expr.Literal(true);
-        body = new Stmt.While(condition,body);
+        body = new Stmt.While(keyword,condition,body);
 
         if(initializer != null) {
             body = new Stmt.Block(Arrays.asList(initializer,body));
@@ -238,11 +251,12 @@ public class Parser {
     }
 
     private Stmt whileStatement() {
+        Token keyword = previous();
         consume(TokenType.LEFT_PAREN,"Expect ')' after 'while'");
         Expr condition = expression();
         consume(TokenType.RIGHT_PAREN,"Expect ')' after condition");
         Stmt body = statement();
-        return new Stmt.While(condition,body);
+        return new Stmt.While(keyword,condition,body);
     }
 
     private Stmt ifStatement() {
@@ -405,18 +419,21 @@ public class Parser {
     }
 
     private Token advance() {
-        if(!isAtEnd()) current++;
+        if(!isAtEnd()){
+            previous = current;
+            current = tokens.next();
+        }
         return previous();
     }
 
     private Token peek() {
-        return tokens.get(current);
+        return current;
     }
 
     private boolean isAtEnd() {
         return peek().type == TokenType.EOF;
     }
     private Token previous() {
-        return tokens.get(current-1);
+        return previous;
     }
 }
@@ -1,9 +1,11 @@
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 public abstract class PrintHandler {
 
-    protected List<String> stdOutMessages = new ArrayList<>();
+    //a handler can be shared by scripts running on several threads at once
+    protected List<String> stdOutMessages = Collections.synchronizedList(new ArrayList<>());
 
     public List<String> getStdOutMessages() { return stdOutMessages; }
 
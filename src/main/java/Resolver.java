@@ -1,11 +1,11 @@
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Stack;
 
 public class Resolver implements Expr.Visitor<Void>,Stmt.Visitor<Void>{
-    private final Interpreter interpreter;
-    private final Stack<Map<String,Boolean>> scopes = new Stack<>();
+    private final Stack<Map<String,Local>> scopes = new Stack<>();
     private LoxErrorHandler errorHandler = new LoxStdOutErrorHandler();
     private FunctionType currentFunction = FunctionType.NONE;
 
@@ -25,20 +25,55 @@ public class Resolver implements Expr.Visitor<Void>,Stmt.Visitor<Void>{
 
     private ClassType currentClass = ClassType.NONE;
 
+    //a local gets the next free slot of its function's frame, the slots of a scope are free again once it ends
+    private static class Local {
+        final int slot;
+        //null for parameters, this and super
+        final Stmt.Declaration declaration;
+        boolean defined = false;
+        //set when a function nested in the one declaring it refers to it
+        boolean captured = false;
+        //the references from its own function, they read through the cell once it is captured
+        final List<Expr.VariableRef> uses = new ArrayList<>();
+
+        Local(int slot, Stmt.Declaration declaration) {
+            this.slot = slot;
+            this.declaration = declaration;
+        }
+    }
+
+    //the function being resolved, the script being the outermost one
+    private static class FunctionState {
+        final FunctionState enclosing;
+        //the index in scopes of the function's outermost scope
+        final int firstScope;
+        final List<Stmt.Function.Upvalue> upvalues = new ArrayList<>();
+        int nextSlot = 0;
+        int frameSize = 0;
+
+        FunctionState(FunctionState enclosing, int firstScope) {
+            this.enclosing = enclosing;
+            this.firstScope = firstScope;
+        }
+    }
+
+    private FunctionState current = new FunctionState(null,0);
+
+    //the program's global table, natives first, every other global gets the next slot the first time it is named
+    private final Map<String,Integer> globalSlots = nativeSlots();
 
-    public Resolver(Interpreter interpreter) {
-        this.interpreter = interpreter;
+
+    public Resolver() {
     }
 
-    public Resolver(Interpreter interpreter,LoxErrorHandler errorHandler){
-        this.interpreter = interpreter;
+    public Resolver(LoxErrorHandler errorHandler){
         this.errorHandler = errorHandler;
     }
 
     @Override
     public Void visitAssignExpr(Expr.Assign expr) {
         resolve(expr.value);
-        resolveLocal(expr,expr.name);
+        resolveLocal(expr,expr.name.lexeme());
         return null;
     }
 
@@ -46,6 +81,17 @@ public class Resolver implements Expr.Visitor<Void>,Stmt.Visitor<Void>{
     public Void visitBinaryExpr(Expr.Binary expr) {
         resolve(expr.left);
         resolve(expr.right);
+        switch (expr.operator.type) {
+            //these either produce a number or throw
+            case MINUS:
+            case SLASH:
+            case STAR:
+                expr.numeric = true;
+                break;
+            case PLUS:
+                expr.numeric = expr.left.numeric && expr.right.numeric;
+                break;
+        }
         return null;
     }
 
@@ -68,11 +114,13 @@ public class Resolver implements Expr.Visitor<Void>,Stmt.Visitor<Void>{
     @Override
     public Void visitGroupingExpr(Expr.Grouping expr) {
         resolve(expr.expression);
+        expr.numeric = expr.expression.numeric;
         return null;
     }
 
     @Override
     public Void visitLiteralExpr(Expr.Literal expr) {
+        expr.numeric = expr.value instanceof Double;
         return null;
     }
 
@@ -98,7 +146,9 @@ public class Resolver implements Expr.Visitor<Void>,Stmt.Visitor<Void>{
             errorHandler.error(expr.keyword,"Can't use 'super' in a class with no superclass");
         }
 
-        resolveLocal(expr,expr.keyword);
+        resolveLocal(expr,"super");
+        resolveLocal(expr.receiver,"this");
+        expr.methodId = Names.idOf(expr.method.lexeme());
         return null;
     }
 
@@ -108,13 +158,14 @@ public class Resolver implements Expr.Visitor<Void>,Stmt.Visitor<Void>{
             errorHandler.error(expr.keyword,"Can't use 'this' outside of a class");
             return null;
         }
-        resolveLocal(expr,expr.keyword);
+        resolveLocal(expr,"this");
         return null;
     }
 
     @Override
     public Void visitUnaryExpr(Expr.Unary expr) {
         resolve(expr.right);
+        expr.numeric = expr.operator.type == TokenType.MINUS;
         return null;
     }
 
@@ -122,23 +173,73 @@ public class Resolver implements Expr.Visitor<Void>,Stmt.Visitor<Void>{
     public Void visitVariableExpr(Expr.Variable expr) {
         //this condition basically says if the variable is declared but not resolved
         //that means we are trying to do sth like var a = a + 2
-        if(!scopes.isEmpty() && scopes.peek().get(expr.name.lexeme) == Boolean.FALSE){
+        if(!scopes.isEmpty() && scopes.peek().containsKey(expr.name.lexeme())
+                && !scopes.peek().get(expr.name.lexeme()).defined){
             errorHandler.error(expr.name,"Can't read local variable in its own initializer.");
         }
 
-        resolveLocal(expr,expr.name);
+        resolveLocal(expr,expr.name.lexeme());
         return null;
     }
 
-    private void resolveLocal(Expr expr, Token name) {
-        for(int i = scopes.size() -1 ; i >= 0; i--){
-            //we want to see how many hops away the variable is
-            //in terms of environments, starting from the innermost
-            if (scopes.get(i).containsKey(name.lexeme)){
-                interpreter.resolve(expr,scopes.size() - 1 - i);
+    private void resolveLocal(Expr.VariableRef expr, String name) {
+        for(int i = scopes.size() -1 ; i >= current.firstScope; i--){
+            //the innermost declaration of the name in the function wins
+            Local local = scopes.get(i).get(name);
+            if (local != null){
+                expr.kind = Expr.VariableRef.LOCAL;
+                expr.slot = local.slot;
+                local.uses.add(expr);
                 return ;
             }
         }
+        int upvalue = resolveUpvalue(current,name);
+        if(upvalue != -1){
+            expr.kind = Expr.VariableRef.UPVALUE;
+            expr.slot = upvalue;
+            return;
+        }
+        //a global, it may not be defined yet, so whether it exists is only known when the site runs
+        expr.slot = globalSlotOf(name);
+    }
+
+    private int globalSlotOf(String name) {
+        return globalSlots.computeIfAbsent(name,n -> globalSlots.size());
+    }
+
+    private static Map<String,Integer> nativeSlots() {
+        Map<String,Integer> slots = new HashMap<>();
+        for(String name: Environment.NATIVES) slots.put(name,slots.size());
+        return slots;
+    }
+
+    //a local of an enclosing function, captured into every closure in between, -1 when there is none
+    private int resolveUpvalue(FunctionState function, String name) {
+        FunctionState enclosing = function.enclosing;
+        if(enclosing == null) return -1;
+
+        for(int i = function.firstScope - 1; i >= enclosing.firstScope; i--){
+            Local local = scopes.get(i).get(name);
+            if(local != null){
+                local.captured = true;
+                return addUpvalue(function,true,local.slot);
+            }
+        }
+
+        int upvalue = resolveUpvalue(enclosing,name);
+        if(upvalue != -1){
+            return addUpvalue(function,false,upvalue);
+        }
+        return -1;
+    }
+
+    private int addUpvalue(FunctionState function, boolean isLocal, int index) {
+        for(int i = 0; i < function.upvalues.size(); i++){
+            Stmt.Function.Upvalue upvalue = function.upvalues.get(i);
+            if(upvalue.isLocal == isLocal && upvalue.index == index) return i;
+        }
+        function.upvalues.add(new Stmt.Function.Upvalue(isLocal,index));
+        return function.upvalues.size() - 1;
     }
 
     @Override
@@ -155,7 +256,7 @@ public class Resolver implements Expr.Visitor<Void>,Stmt.Visitor<Void>{
 
     @Override
     public Void visitVarStmt(Stmt.Var stmt) {
-        declare(stmt.name);
+        declare(stmt.name,stmt);
         if(stmt.initializer != null){
             resolve(stmt.initializer);
         }
@@ -163,18 +264,37 @@ public class Resolver implements Expr.Visitor<Void>,Stmt.Visitor<Void>{
         return null;
     }
 
-    private void declare(Token name){
-        if(scopes.isEmpty()) return;
-        Map<String,Boolean> scope = scopes.peek();
-        if(scope.containsKey(name.lexeme)){
+    private void declare(Token name, Stmt.Declaration declaration){
+        if(scopes.isEmpty()){
+            declaration.globalSlot = globalSlotOf(name.lexeme());
+            return;
+        }
+        Map<String,Local> scope = scopes.peek();
+        if(scope.containsKey(name.lexeme())){
             errorHandler.error(name,"Already a variable with this name in this scope");
+            return;
         }
-        scope.put(name.lexeme,false);
+        Local local = new Local(nextSlot(),declaration);
+        scope.put(name.lexeme(),local);
+        if(declaration != null) declaration.slot = local.slot;
+    }
+
+    private int nextSlot() {
+        int slot = current.nextSlot++;
+        current.frameSize = Math.max(current.frameSize,current.nextSlot);
+        return slot;
     }
 
     private void define(Token name) {
         if(scopes.isEmpty()) return;
-        scopes.peek().put(name.lexeme,true);
+        scopes.peek().get(name.lexeme()).defined = true;
+    }
+
+    private int defineSynthetic(String name) {
+        Local local = new Local(nextSlot(),null);
+        local.defined = true;
+        scopes.peek().put(name,local);
+        return local.slot;
     }
 
     @Override
@@ -211,8 +331,16 @@ public class Resolver implements Expr.Visitor<Void>,Stmt.Visitor<Void>{
         expr.accept(this);
     }
 
+    //the scope's references are all resolved now, so it is known which of its locals live in cells
     private void endScope() {
-        scopes.pop();
+        Map<String,Local> scope = scopes.pop();
+        //a later scope of the function reuses the slots
+        current.nextSlot -= scope.size();
+        for(Local local: scope.values()){
+            if(!local.captured) continue;
+            for(Expr.VariableRef use: local.uses) use.captured = true;
+            if(local.declaration != null) local.declaration.captured = true;
+        }
     }
 
 
@@ -225,7 +353,7 @@ public class Resolver implements Expr.Visitor<Void>,Stmt.Visitor<Void>{
 
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt) {
-        declare(stmt.name);
+        declare(stmt.name,stmt);
         define(stmt.name);
 
         resolveFunction(stmt,FunctionType.FUNCTION);
@@ -235,14 +363,35 @@ public class Resolver implements Expr.Visitor<Void>,Stmt.Visitor<Void>{
     private void resolveFunction(Stmt.Function function,FunctionType type) {
         FunctionType enclosingFunction = currentFunction;
         currentFunction = type;
+        current = new FunctionState(current,scopes.size());
         beginScope();
-        function.params.forEach(p->{ declare(p); define(p); });
+        //slot zero holds the receiver, like in the VM's frames, so it is this inside methods
+        defineSynthetic(type == FunctionType.METHOD || type == FunctionType.INITIALIZER ? "this" : "");
+        function.params.forEach(p->{ declare(p,null); define(p); });
         resolve(function.body);
+        function.cells = capturedParameters(scopes.peek());
         endScope();
+        function.frameSize = current.frameSize;
+        function.upvalues = current.upvalues;
+        current = current.enclosing;
         currentFunction = enclosingFunction;
 
     }
 
+    //the slots of the receiver and the parameters that closures capture
+    private static int[] capturedParameters(Map<String,Local> scope) {
+        int count = 0;
+        for(Local local: scope.values()){
+            if(local.captured && local.declaration == null) count++;
+        }
+        if(count == 0) return Stmt.Function.NO_CELLS;
+        int[] cells = new int[count];
+        for(Local local: scope.values()){
+            if(local.captured && local.declaration == null) cells[--count] = local.slot;
+        }
+        return cells;
+    }
+
     @Override
     public Void visitReturnStmt(Stmt.Return stmt) {
         if(currentFunction == FunctionType.NONE) {
@@ -263,10 +412,10 @@ public class Resolver implements Expr.Visitor<Void>,Stmt.Visitor<Void>{
     public Void visitClassStmt(Stmt.Class stmt) {
         ClassType enclosingClass = currentClass;
         currentClass = ClassType.CLASS;
-        declare(stmt.name);
+        declare(stmt.name,stmt);
         define(stmt.name);
 
-        if(stmt.superclass != null && stmt.name.lexeme.equals(stmt.superclass.name.lexeme)){
+        if(stmt.superclass != null && stmt.name.lexeme().equals(stmt.superclass.name.lexeme())){
             errorHandler.error(stmt.superclass.name,"A class can't inherit from itself.");
         }
 
@@ -277,19 +426,16 @@ public class Resolver implements Expr.Visitor<Void>,Stmt.Visitor<Void>{
 
         if(stmt.superclass != null) {
             beginScope();
-            scopes.peek().put("super",true);
+            stmt.superSlot = defineSynthetic("super");
         }
 
-        beginScope();
-        scopes.peek().put("this",true);
         for(Stmt.Function method:stmt.methods){
             FunctionType decl = FunctionType.METHOD;
-            if(method.name.lexeme.equals("init")){
+            if(method.name.lexeme().equals("init")){
                 decl = FunctionType.INITIALIZER;
             }
             resolveFunction(method,decl);
         }
-        endScope();
         if(stmt.superclass != null) endScope();
 
         currentClass = enclosingClass;
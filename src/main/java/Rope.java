@@ -0,0 +1,58 @@
+//a long string built by +, it shares one StringBuilder with the rope it extends, so a loop doing s = s + x
+//appends to the same builder instead of copying s every time. the characters of a rope never change,
+//a later + only writes past its end, and it is flattened to a String once something reads it as a whole.
+//like any CharSequence it has identity equality, LoxValues.isEqual flattens ropes before comparing them
+final class Rope implements CharSequence {
+
+    //shorter results are concatenated right away, copying them is cheaper than keeping a builder around
+    static final int MIN_LENGTH = 64;
+
+    private final StringBuilder builder;
+    private final int length;
+    private String flat;
+
+    private Rope(StringBuilder builder, int length) {
+        this.builder = builder;
+        this.length = length;
+    }
+
+    static CharSequence concat(CharSequence left, CharSequence right) {
+        int length = left.length() + right.length();
+        if(length < MIN_LENGTH) return left.toString().concat(right.toString());
+
+        if(left instanceof Rope){
+            Rope rope = (Rope) left;
+            //nothing was appended past the rope yet, so it can be extended in place
+            if(rope.builder.length() == rope.length){
+                rope.builder.append(right.toString());
+                return new Rope(rope.builder,length);
+            }
+        }
+        //room to grow, the next + on the result is likely another append
+        StringBuilder builder = new StringBuilder(length <= Integer.MAX_VALUE / 2 ? length * 2 : length);
+        builder.append(left).append(right);
+        return new Rope(builder,length);
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if(index < 0 || index >= length) throw new IndexOutOfBoundsException(index);
+        return builder.charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start,end);
+    }
+
+    @Override
+    public String toString() {
+        if(flat == null) flat = builder.substring(0,length);
+        return flat;
+    }
+}
@@ -0,0 +1,46 @@
+//what one run has used of its Budget, an engine only calls in here when its run has a budget.
+//going over a limit is a RuntimeError at the token where it happened, like any other error in the script
+final class Sandbox {
+
+    //reading the clock on every step would cost more than the step, so it is only read every this many
+    private static final int CLOCK_INTERVAL = 1024;
+
+    private final Budget budget;
+    private final long deadline;
+    private long steps = 0;
+    private long depth = 0;
+    private long allocations = 0;
+
+    Sandbox(Budget budget) {
+        this.budget = budget;
+        this.deadline = budget.timeNanos == Budget.UNLIMITED ? 0 : System.nanoTime() + budget.timeNanos;
+    }
+
+    //a loop iteration or a call
+    void step(Token token) {
+        if(++steps > budget.steps){
+            throw new RuntimeError(token,"Step limit of " + budget.steps + " exceeded.");
+        }
+        if((steps & (CLOCK_INTERVAL - 1)) == 0 && budget.timeNanos != Budget.UNLIMITED && System.nanoTime() - deadline > 0){
+            throw new RuntimeError(token,"Time limit of " + budget.timeNanos / 1_000_000 + " ms exceeded.");
+        }
+    }
+
+    void enter(Token token) {
+        if(++depth > budget.callDepth){
+            throw new RuntimeError(token,"Call depth limit of " + budget.callDepth + " exceeded.");
+        }
+        step(token);
+    }
+
+    //a runtime error ends the whole run, so only calls that return normally have to come back out
+    void exit() {
+        depth--;
+    }
+
+    void allocate(Token token) {
+        if(++allocations > budget.allocations){
+            throw new RuntimeError(token,"Allocation limit of " + budget.allocations + " exceeded.");
+        }
+    }
+}
@@ -0,0 +1,42 @@
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+//the layout of an instance's fields, instances of a class that got the same fields in the same order share one Shape.
+//shapes never change, setting a new field moves the instance to the next shape along a transition
+final class Shape {
+
+    final LoxClass klass;
+    private final Map<String,Integer> slots;
+    private final Map<String,Shape> transitions = new HashMap<>();
+
+    Shape(LoxClass klass) {
+        this(klass,Collections.emptyMap());
+    }
+
+    private Shape(LoxClass klass, Map<String,Integer> slots) {
+        this.klass = klass;
+        this.slots = slots;
+    }
+
+    int fieldCount() {
+        return slots.size();
+    }
+
+    //-1 when instances of this shape don't have the field
+    int slotOf(String name) {
+        Integer slot = slots.get(name);
+        return slot == null ? -1 : slot;
+    }
+
+    synchronized Shape withField(String name) {
+        Shape next = transitions.get(name);
+        if(next == null){
+            Map<String,Integer> nextSlots = new HashMap<>(slots);
+            nextSlots.put(name,slots.size());
+            next = new Shape(klass,nextSlots);
+            transitions.put(name,next);
+        }
+        return next;
+    }
+}
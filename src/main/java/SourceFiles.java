@@ -0,0 +1,64 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+//source files are memory mapped and lexed in place instead of being copied into a byte[] and then a String
+final class SourceFiles {
+
+    private SourceFiles() {}
+
+    static CharSequence map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path,StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,0,channel.size());
+            if(isAscii(buffer)) return new AsciiSequence(buffer,0,buffer.limit());
+            //anything else is decoded as UTF-8, still one copy less than going through a String
+            return StandardCharsets.UTF_8.decode(buffer);
+        }
+    }
+
+    private static boolean isAscii(ByteBuffer buffer) {
+        for(int i = 0; i < buffer.limit(); i++){
+            if(buffer.get(i) < 0) return false;
+        }
+        return true;
+    }
+
+    //ASCII bytes read as chars straight out of the buffer
+    private static final class AsciiSequence implements CharSequence {
+        private final ByteBuffer buffer;
+        private final int offset;
+        private final int length;
+
+        AsciiSequence(ByteBuffer buffer, int offset, int length) {
+            this.buffer = buffer;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) buffer.get(offset + index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new AsciiSequence(buffer,offset + start,end - start);
+        }
+
+        @Override
+        public String toString() {
+            byte[] bytes = new byte[length];
+            buffer.get(offset,bytes);
+            return new String(bytes,StandardCharsets.ISO_8859_1);
+        }
+    }
+}
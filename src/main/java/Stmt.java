@@ -1,3 +1,4 @@
+import java.util.Collections;
 import java.util.List;
 
 abstract class Stmt {
@@ -13,7 +14,19 @@ abstract class Stmt {
         R visitClassStmt(Class stmt);
     }
 
-    static class Class extends Stmt {
+    //statements that declare a name, the Resolver fills in where it lives when it is a local
+    abstract static class Declaration extends Stmt {
+        static final int GLOBAL = -1;
+
+        //the slot in the frame of the function declaring it, GLOBAL at the top level
+        int slot = GLOBAL;
+        //the slot in the run's global table when slot is GLOBAL
+        int globalSlot = -1;
+        //a captured local is kept in a Cell so the closures over it share it
+        boolean captured = false;
+    }
+
+    static class Class extends Declaration {
         Class(Token name,
               Expr.Variable superclass,
               List<Stmt.Function> methods) {
@@ -30,6 +43,8 @@ abstract class Stmt {
         final Token name;
         final Expr.Variable superclass;
         final List<Stmt.Function> methods;
+        //the frame slot of the cell holding super, which the methods capture
+        int superSlot = -1;
     }
 
     static class Return extends Stmt {
@@ -45,7 +60,7 @@ abstract class Stmt {
         final Expr value;
     }
 
-    static class Function extends Stmt {
+    static class Function extends Declaration {
         Function(Token name, List<Token> params,List<Stmt> body){
             this.name = name;
             this.params = params;
@@ -60,16 +75,45 @@ abstract class Stmt {
         final Token name;
         final List<Token> params;
         final List<Stmt> body;
+        //every local of the body shares one frame, locals of scopes that don't overlap share slots,
+        //slot zero holds the receiver and the parameters follow it
+        int frameSize = 0;
+        //the receiver and parameter slots closures capture, they are boxed into cells when the function is called
+        int[] cells = NO_CELLS;
+        //what a closure over the function captures, set by the Resolver
+        List<Upvalue> upvalues = Collections.emptyList();
+        //JIT state, shared by every closure created from this declaration and by every run of the script.
+        //concurrent runs may lose counts or compile it twice, either way they end up with working code
+        int invocations = 0;
+        volatile JitCode jitCode;
+        volatile boolean jitFailed = false;
+
+        static final int[] NO_CELLS = new int[0];
+
+        //the cell in frame slot index of the function declaring the closure when isLocal,
+        //otherwise one of that function's own upvalues
+        static class Upvalue {
+            final boolean isLocal;
+            final int index;
+
+            Upvalue(boolean isLocal, int index) {
+                this.isLocal = isLocal;
+                this.index = index;
+            }
+        }
     }
 
 
 
     static class While extends Stmt {
-        While(Expr condition,Stmt body){
+        While(Token keyword,Expr condition,Stmt body){
+            this.keyword = keyword;
             this.condition = condition;
             this.body = body;
         }
 
+        //the while or for the loop came from, where a sandbox reports a loop that ran too long
+        final Token keyword;
         final Expr condition;
         final Stmt body;
 
@@ -109,7 +153,7 @@ abstract class Stmt {
         final List<Stmt> statements;
     }
 
-    static class Var extends Stmt {
+    static class Var extends Declaration {
         Var(Token name, Expr initializer) {
             this.name = name;
             this.initializer = initializer;
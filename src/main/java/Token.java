@@ -1,19 +1,49 @@
 public class Token {
 
     final TokenType type;
-    final String lexeme;
     final Object literal;
     final int line;
-    //todo add column
+    //1-based, counted in chars from the start of the line, 0 when unknown
+    final int column;
+    //where the token sits in the source, its text is only copied out when something asks for it
+    private final CharSequence source;
+    final int start;
+    final int length;
+    private String lexeme;
 
     public Token(TokenType type, String lexeme, Object literal, int line) {
+        this(type,lexeme,0,lexeme.length(),literal,line);
+        this.lexeme = lexeme;
+    }
+
+    Token(TokenType type, CharSequence source, int start, int length, Object literal, int line) {
+        this(type,source,start,length,null,literal,line,0);
+    }
+
+    //for tokens whose text the Lexer already has, like interned identifiers
+    Token(TokenType type, CharSequence source, int start, int length, String lexeme, Object literal, int line) {
+        this(type,source,start,length,lexeme,literal,line,0);
+    }
+
+    Token(TokenType type, CharSequence source, int start, int length, String lexeme, Object literal, int line, int column) {
         this.type = type;
         this.lexeme = lexeme;
+        this.source = source;
+        this.start = start;
+        this.length = length;
         this.literal = literal;
         this.line = line;
+        this.column = column;
+    }
+
+    String lexeme() {
+        if(lexeme == null){
+            lexeme = source.subSequence(start,start + length).toString();
+        }
+        return lexeme;
     }
 
     public String toString() {
-        return type + " " + lexeme + " " + literal;
+        return type + " " + lexeme() + " " + literal;
     }
 }
@@ -0,0 +1,104 @@
+import java.util.Arrays;
+
+//the tokens of a whole source as parallel arrays, a few primitives per token instead of a Token object each,
+//Tokens are only made while the Parser walks the buffer and only the ones the tree keeps stay alive
+final class TokenBuffer {
+
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private final CharSequence source;
+    private byte[] types;
+    private int[] starts;
+    private int[] lengths;
+    private int[] lines;
+    private int[] columns;
+    //index into literals, -1 for tokens without one, identifiers keep their interned name there
+    private int[] literalIndexes;
+    private Object[] literals = new Object[16];
+    private int literalCount = 0;
+    private int size = 0;
+
+    TokenBuffer(CharSequence source, int capacity) {
+        this.source = source;
+        types = new byte[capacity];
+        starts = new int[capacity];
+        lengths = new int[capacity];
+        lines = new int[capacity];
+        columns = new int[capacity];
+        literalIndexes = new int[capacity];
+    }
+
+    void add(TokenType type, int start, int length, int line, int column, Object literal) {
+        if(size == types.length) grow();
+        types[size] = (byte) type.ordinal();
+        starts[size] = start;
+        lengths[size] = length;
+        lines[size] = line;
+        columns[size] = column;
+        if(literal == null){
+            literalIndexes[size] = -1;
+        } else {
+            if(literalCount == literals.length) literals = Arrays.copyOf(literals,literalCount * 2);
+            literals[literalCount] = literal;
+            literalIndexes[size] = literalCount++;
+        }
+        size++;
+    }
+
+    private void grow() {
+        int capacity = types.length * 2;
+        types = Arrays.copyOf(types,capacity);
+        starts = Arrays.copyOf(starts,capacity);
+        lengths = Arrays.copyOf(lengths,capacity);
+        lines = Arrays.copyOf(lines,capacity);
+        columns = Arrays.copyOf(columns,capacity);
+        literalIndexes = Arrays.copyOf(literalIndexes,capacity);
+    }
+
+    int size() {
+        return size;
+    }
+
+    TokenType type(int index) {
+        return TYPES[types[index]];
+    }
+
+    int line(int index) {
+        return lines[index];
+    }
+
+    int column(int index) {
+        return columns[index];
+    }
+
+    //the Token for one entry, made fresh each time
+    Token get(int index) {
+        TokenType type = type(index);
+        Object literal = literalIndexes[index] < 0 ? null : literals[literalIndexes[index]];
+        String lexeme = null;
+        if(type == TokenType.IDENTIFIER){
+            lexeme = (String) literal;
+            literal = null;
+        } else if(type == TokenType.EOF){
+            lexeme = "";
+        } else {
+            //keywords share one lexeme, everything else is copied out of the source if it's asked for
+            lexeme = Lexer.keywordLexeme(type);
+        }
+        return new Token(type,source,starts[index],lengths[index],lexeme,literal,lines[index],columns[index]);
+    }
+
+    //a fresh pass over the buffer for the Parser, which can be taken any number of times
+    TokenSource tokens() {
+        return new TokenSource() {
+            private int current = 0;
+
+            @Override
+            public Token next() {
+                Token token = get(current);
+                if(current < size - 1) current++;
+                return token;
+            }
+        };
+    }
+}
@@ -0,0 +1,21 @@
+import java.util.List;
+
+//where the Parser pulls its tokens from, one at a time, so tokens don't have to be kept around once parsed
+interface TokenSource {
+
+    //the next token, EOF again and again once the source is used up
+    Token next();
+
+    static TokenSource of(List<Token> tokens) {
+        return new TokenSource() {
+            private int current = 0;
+
+            @Override
+            public Token next() {
+                Token token = tokens.get(current);
+                if(current < tokens.size() - 1) current++;
+                return token;
+            }
+        };
+    }
+}
@@ -0,0 +1,505 @@
+import java.util.Arrays;
+
+//stack based virtual machine running the output of the BytecodeCompiler
+public class VM {
+
+    private static final int FRAMES_MAX = 16384;
+    //marks a global that was mentioned but never defined
+    private static final Object UNDEFINED = new Object();
+
+    private final LoxErrorHandler errorHandler;
+    private final PrintHandler printHandler;
+    //the run's budget, null when it has none
+    Sandbox sandbox;
+
+    private Object[] stack = new Object[256];
+    private int sp = 0;
+
+    private VmClosure[] frameClosures = new VmClosure[64];
+    private int[] frameIps = new int[64];
+    private int[] frameBases = new int[64];
+    private int frameCount = 0;
+
+    private Object[] globals;
+    private String[] globalNames;
+    private VmUpvalue openUpvalues;
+
+    VM(LoxErrorHandler errorHandler, PrintHandler printHandler) {
+        this.errorHandler = errorHandler;
+        this.printHandler = printHandler;
+    }
+
+    //false when a runtime error stopped the program
+    boolean interpret(VmFunction script, String[] globalNames) {
+        this.globalNames = globalNames;
+        globals = new Object[globalNames.length];
+        Arrays.fill(globals,UNDEFINED);
+        defineNatives();
+
+        VmClosure closure = new VmClosure(script);
+        push(closure);
+        try {
+            call(closure,0);
+            run();
+            return true;
+        } catch (RuntimeError e) {
+            errorHandler.runtimeError(e);
+            resetStack();
+            return false;
+        }
+    }
+
+    private void defineNatives() {
+        defineNative(new VmNative("clock",0,args -> (double) System.currentTimeMillis() / 1000.0));
+    }
+
+    private void defineNative(VmNative function) {
+        //natives only get a slot if the program refers to them
+        for(int i = 0; i < globalNames.length; i++){
+            if(globalNames[i].equals(function.name)) globals[i] = function;
+        }
+    }
+
+    private void resetStack() {
+        Arrays.fill(stack,0,sp,null);
+        sp = 0;
+        frameCount = 0;
+        openUpvalues = null;
+    }
+
+    private void push(Object value) {
+        stack[sp++] = value;
+    }
+
+    private Object pop() {
+        Object value = stack[--sp];
+        stack[sp] = null;
+        return value;
+    }
+
+    //the stack and stack pointer live in locals while running,
+    //they are written back to the fields around anything that needs them
+    private Object run() {
+        VmClosure closure = frameClosures[frameCount - 1];
+        byte[] code = closure.function.chunk.code;
+        Object[] constants = closure.function.chunk.constants;
+        int ip = frameIps[frameCount - 1];
+        int base = frameBases[frameCount - 1];
+        Object[] stack = this.stack;
+        int sp = this.sp;
+
+        for(;;){
+            byte instruction = code[ip++];
+            switch (instruction) {
+                case OpCode.CONSTANT: {
+                    stack[sp++] = constants[readShort(code,ip)];
+                    ip += 2;
+                    break;
+                }
+                case OpCode.NIL: stack[sp++] = null; break;
+                case OpCode.TRUE: stack[sp++] = Boolean.TRUE; break;
+                case OpCode.FALSE: stack[sp++] = Boolean.FALSE; break;
+                case OpCode.POP: stack[--sp] = null; break;
+                case OpCode.GET_LOCAL: {
+                    stack[sp++] = stack[base + readShort(code,ip)];
+                    ip += 2;
+                    break;
+                }
+                case OpCode.SET_LOCAL: {
+                    stack[base + readShort(code,ip)] = stack[sp - 1];
+                    ip += 2;
+                    break;
+                }
+                case OpCode.GET_GLOBAL: {
+                    int index = readShort(code,ip);
+                    ip += 2;
+                    Object value = globals[index];
+                    if(value == UNDEFINED){
+                        throw error(closure,ip,"Undefined variable '" + globalNames[index] + "'.");
+                    }
+                    stack[sp++] = value;
+                    break;
+                }
+                case OpCode.DEFINE_GLOBAL: {
+                    globals[readShort(code,ip)] = stack[--sp];
+                    stack[sp] = null;
+                    ip += 2;
+                    break;
+                }
+                case OpCode.SET_GLOBAL: {
+                    int index = readShort(code,ip);
+                    ip += 2;
+                    if(globals[index] == UNDEFINED){
+                        throw error(closure,ip,"Undefined variable '" + globalNames[index] + "'.");
+                    }
+                    globals[index] = stack[sp - 1];
+                    break;
+                }
+                case OpCode.GET_UPVALUE: {
+                    stack[sp++] = closure.upvalues[readShort(code,ip)].get(stack);
+                    ip += 2;
+                    break;
+                }
+                case OpCode.SET_UPVALUE: {
+                    closure.upvalues[readShort(code,ip)].set(stack,stack[sp - 1]);
+                    ip += 2;
+                    break;
+                }
+                case OpCode.GET_PROPERTY: {
+                    String name = (String) constants[readShort(code,ip)];
+                    ip += 2;
+                    if(!(stack[sp - 1] instanceof VmInstance)){
+                        throw error(closure,ip,"Only instances have properties");
+                    }
+                    VmInstance instance = (VmInstance) stack[sp - 1];
+                    Object value = instance.fields.get(name);
+                    if(value != null || instance.fields.containsKey(name)){
+                        stack[sp - 1] = value;
+                        break;
+                    }
+                    VmClosure method = instance.klass.methods.get(name);
+                    if(method == null){
+                        throw error(closure,ip,"Undefined property '" + name + "' .");
+                    }
+                    stack[sp - 1] = new VmBoundMethod(instance,method);
+                    break;
+                }
+                case OpCode.SET_PROPERTY: {
+                    String name = (String) constants[readShort(code,ip)];
+                    ip += 2;
+                    if(!(stack[sp - 2] instanceof VmInstance)){
+                        throw error(closure,ip,"Only instances have fields");
+                    }
+                    VmInstance instance = (VmInstance) stack[sp - 2];
+                    Object value = stack[--sp];
+                    stack[sp] = null;
+                    instance.fields.put(name,value);
+                    stack[sp - 1] = value;
+                    break;
+                }
+                case OpCode.GET_SUPER: {
+                    String name = (String) constants[readShort(code,ip)];
+                    ip += 2;
+                    VmClass superclass = (VmClass) stack[--sp];
+                    stack[sp] = null;
+                    VmClosure method = superclass.methods.get(name);
+                    if(method == null){
+                        throw error(closure,ip,"Undefined property '" + name + "'.");
+                    }
+                    stack[sp - 1] = new VmBoundMethod(stack[sp - 1],method);
+                    break;
+                }
+                case OpCode.EQUAL: {
+                    Object b = stack[--sp];
+                    stack[sp] = null;
+                    stack[sp - 1] = LoxValues.isEqual(stack[sp - 1],b);
+                    break;
+                }
+                case OpCode.NOT_EQUAL: {
+                    Object b = stack[--sp];
+                    stack[sp] = null;
+                    stack[sp - 1] = !LoxValues.isEqual(stack[sp - 1],b);
+                    break;
+                }
+                case OpCode.GREATER:
+                case OpCode.GREATER_EQUAL:
+                case OpCode.LESS:
+                case OpCode.LESS_EQUAL:
+                case OpCode.SUBTRACT:
+                case OpCode.MULTIPLY:
+                case OpCode.DIVIDE: {
+                    Object right = stack[--sp];
+                    stack[sp] = null;
+                    Object left = stack[sp - 1];
+                    if(!(left instanceof Double) || !(right instanceof Double)){
+                        throw error(closure,ip,"Operands must be numbers.");
+                    }
+                    stack[sp - 1] = numberOperation(instruction,(double) left,(double) right);
+                    break;
+                }
+                case OpCode.ADD: {
+                    Object b = stack[--sp];
+                    stack[sp] = null;
+                    Object a = stack[sp - 1];
+                    if(a instanceof Double && b instanceof Double){
+                        stack[sp - 1] = LoxValues.box((double) a + (double) b);
+                    } else {
+                        Object sum = LoxValues.add(a,b);
+                        if(sum == null){
+                            throw error(closure,ip,"Operands must be two numbers or two strings.");
+                        }
+                        if(sandbox != null) sandbox.allocate(closure.function.chunk.tokens[ip - 1]);
+                        stack[sp - 1] = sum;
+                    }
+                    break;
+                }
+                case OpCode.NOT:
+                    stack[sp - 1] = !LoxValues.isTruthy(stack[sp - 1]);
+                    break;
+                case OpCode.NEGATE: {
+                    if(!(stack[sp - 1] instanceof Double)){
+                        throw error(closure,ip,"Operand must be a number.");
+                    }
+                    stack[sp - 1] = LoxValues.box(-(double) stack[sp - 1]);
+                    break;
+                }
+                case OpCode.PRINT:
+                    printHandler.print(LoxValues.stringify(stack[--sp]));
+                    stack[sp] = null;
+                    break;
+                case OpCode.JUMP: {
+                    int offset = readShort(code,ip);
+                    ip += 2 + offset;
+                    break;
+                }
+                case OpCode.JUMP_IF_FALSE: {
+                    int offset = readShort(code,ip);
+                    ip += 2;
+                    if(!LoxValues.isTruthy(stack[sp - 1])) ip += offset;
+                    break;
+                }
+                case OpCode.LOOP: {
+                    if(sandbox != null) sandbox.step(closure.function.chunk.tokens[ip - 1]);
+                    int offset = readShort(code,ip);
+                    ip += 2 - offset;
+                    break;
+                }
+                case OpCode.CALL:
+                case OpCode.INVOKE:
+                case OpCode.SUPER_INVOKE: {
+                    this.sp = sp;
+                    if(instruction == OpCode.CALL){
+                        int argCount = code[ip++] & 0xff;
+                        frameIps[frameCount - 1] = ip;
+                        callValue(stack[sp - 1 - argCount],argCount);
+                    } else {
+                        String name = (String) constants[readShort(code,ip)];
+                        int argCount = code[ip + 2] & 0xff;
+                        ip += 3;
+                        frameIps[frameCount - 1] = ip;
+                        if(instruction == OpCode.INVOKE){
+                            invoke(name,argCount);
+                        } else {
+                            VmClass superclass = (VmClass) stack[--this.sp];
+                            stack[this.sp] = null;
+                            invokeFromClass(superclass,name,argCount);
+                        }
+                    }
+                    stack = this.stack;
+                    sp = this.sp;
+                    closure = frameClosures[frameCount - 1];
+                    code = closure.function.chunk.code;
+                    constants = closure.function.chunk.constants;
+                    ip = frameIps[frameCount - 1];
+                    base = frameBases[frameCount - 1];
+                    break;
+                }
+                case OpCode.CLOSURE: {
+                    VmFunction function = (VmFunction) constants[readShort(code,ip)];
+                    ip += 2;
+                    if(sandbox != null) sandbox.allocate(closure.function.chunk.tokens[ip - 1]);
+                    VmClosure created = new VmClosure(function);
+                    for(int i = 0; i < created.upvalues.length; i++){
+                        boolean isLocal = code[ip] == 1;
+                        int index = readShort(code,ip + 1);
+                        ip += 3;
+                        created.upvalues[i] = isLocal ? captureUpvalue(base + index) : closure.upvalues[index];
+                    }
+                    stack[sp++] = created;
+                    break;
+                }
+                case OpCode.CLOSE_UPVALUE:
+                    closeUpvalues(sp - 1);
+                    stack[--sp] = null;
+                    break;
+                case OpCode.RETURN: {
+                    Object result = stack[--sp];
+                    closeUpvalues(base);
+                    frameCount--;
+                    Arrays.fill(stack,base,sp,null);
+                    if(frameCount == 0){
+                        this.sp = 0;
+                        return result;
+                    }
+                    if(sandbox != null) sandbox.exit();
+                    sp = base;
+                    stack[sp++] = result;
+                    closure = frameClosures[frameCount - 1];
+                    code = closure.function.chunk.code;
+                    constants = closure.function.chunk.constants;
+                    ip = frameIps[frameCount - 1];
+                    base = frameBases[frameCount - 1];
+                    break;
+                }
+                case OpCode.CLASS:
+                    if(sandbox != null) sandbox.allocate(closure.function.chunk.tokens[ip - 1]);
+                    stack[sp++] = new VmClass((String) constants[readShort(code,ip)]);
+                    ip += 2;
+                    break;
+                case OpCode.INHERIT: {
+                    Object superclass = stack[sp - 2];
+                    if(!(superclass instanceof VmClass)){
+                        throw error(closure,ip,"Superclass must be a class.");
+                    }
+                    ((VmClass) stack[sp - 1]).inherit((VmClass) superclass);
+                    stack[--sp] = null;
+                    break;
+                }
+                case OpCode.METHOD: {
+                    String name = (String) constants[readShort(code,ip)];
+                    ip += 2;
+                    VmClosure method = (VmClosure) stack[--sp];
+                    stack[sp] = null;
+                    ((VmClass) stack[sp - 1]).defineMethod(name,method);
+                    break;
+                }
+                default:
+                    throw new IllegalStateException("Unknown opcode " + instruction);
+            }
+        }
+    }
+
+    private static Object numberOperation(byte instruction, double left, double right) {
+        switch (instruction) {
+            case OpCode.GREATER: return left > right;
+            case OpCode.GREATER_EQUAL: return left >= right;
+            case OpCode.LESS: return left < right;
+            case OpCode.LESS_EQUAL: return left <= right;
+            case OpCode.SUBTRACT: return LoxValues.box(left - right);
+            case OpCode.MULTIPLY: return LoxValues.box(left * right);
+            default: return LoxValues.box(left / right);
+        }
+    }
+
+    private static int readShort(byte[] code, int ip) {
+        return ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+    }
+
+    private void callValue(Object callee, int argCount) {
+        if(callee instanceof VmClosure){
+            call((VmClosure) callee,argCount);
+            return;
+        }
+        if(callee instanceof VmBoundMethod){
+            VmBoundMethod bound = (VmBoundMethod) callee;
+            stack[sp - argCount - 1] = bound.receiver;
+            call(bound.method,argCount);
+            return;
+        }
+        if(callee instanceof VmClass){
+            VmClass klass = (VmClass) callee;
+            if(sandbox != null) sandbox.allocate(errorToken());
+            stack[sp - argCount - 1] = new VmInstance(klass);
+            if(klass.initializer != null){
+                call(klass.initializer,argCount);
+            } else if(argCount != 0){
+                throw error("Expected 0 arguments but got " + argCount + ".");
+            }
+            return;
+        }
+        if(callee instanceof VmNative){
+            VmNative function = (VmNative) callee;
+            if(argCount != function.arity){
+                throw error("Expected " + function.arity + " arguments but got " + argCount + ".");
+            }
+            Object[] args = Arrays.copyOfRange(stack,sp - argCount,sp);
+            Object result = function.body.apply(args);
+            Arrays.fill(stack,sp - argCount - 1,sp,null);
+            sp -= argCount + 1;
+            push(result);
+            return;
+        }
+        throw error("Can only call functions and classes");
+    }
+
+    private void invoke(String name, int argCount) {
+        Object receiver = stack[sp - 1 - argCount];
+        if(!(receiver instanceof VmInstance)){
+            throw error("Only instances have properties");
+        }
+        VmInstance instance = (VmInstance) receiver;
+        Object field = instance.fields.get(name);
+        if(field != null || instance.fields.containsKey(name)){
+            stack[sp - argCount - 1] = field;
+            callValue(field,argCount);
+            return;
+        }
+        invokeFromClass(instance.klass,name,argCount);
+    }
+
+    private void invokeFromClass(VmClass klass, String name, int argCount) {
+        VmClosure method = klass.methods.get(name);
+        if(method == null){
+            throw error("Undefined property '" + name + "' .");
+        }
+        call(method,argCount);
+    }
+
+    private void call(VmClosure closure, int argCount) {
+        VmFunction function = closure.function;
+        if(argCount != function.arity){
+            throw error("Expected " + function.arity + " arguments but got " + argCount + ".");
+        }
+        if(frameCount == FRAMES_MAX){
+            throw error("Stack overflow.");
+        }
+        //the script's own frame isn't a call
+        if(sandbox != null && frameCount > 0) sandbox.enter(errorToken());
+        if(frameCount == frameClosures.length){
+            frameClosures = Arrays.copyOf(frameClosures,frameCount * 2);
+            frameIps = Arrays.copyOf(frameIps,frameCount * 2);
+            frameBases = Arrays.copyOf(frameBases,frameCount * 2);
+        }
+        int base = sp - argCount - 1;
+        ensureStack(base + function.maxStack);
+        frameClosures[frameCount] = closure;
+        frameIps[frameCount] = 0;
+        frameBases[frameCount] = base;
+        frameCount++;
+    }
+
+    private void ensureStack(int size) {
+        if(size <= stack.length) return;
+        int capacity = stack.length;
+        while(capacity < size) capacity *= 2;
+        stack = Arrays.copyOf(stack,capacity);
+    }
+
+    private VmUpvalue captureUpvalue(int index) {
+        VmUpvalue previous = null;
+        VmUpvalue upvalue = openUpvalues;
+        while(upvalue != null && upvalue.index > index){
+            previous = upvalue;
+            upvalue = upvalue.next;
+        }
+        if(upvalue != null && upvalue.index == index) return upvalue;
+
+        VmUpvalue created = new VmUpvalue(index,upvalue);
+        if(previous == null){
+            openUpvalues = created;
+        } else {
+            previous.next = created;
+        }
+        return created;
+    }
+
+    private void closeUpvalues(int last) {
+        while(openUpvalues != null && openUpvalues.index >= last){
+            openUpvalues.close(stack);
+            openUpvalues = openUpvalues.next;
+        }
+    }
+
+    //errors raised while the current frame's ip is saved, i.e. during calls
+    private RuntimeError error(String msg) {
+        return new RuntimeError(errorToken(),msg);
+    }
+
+    private Token errorToken() {
+        return frameClosures[frameCount - 1].function.chunk.tokens[frameIps[frameCount - 1] - 1];
+    }
+
+    private RuntimeError error(VmClosure closure, int ip, String msg) {
+        return new RuntimeError(closure.function.chunk.tokens[ip - 1],msg);
+    }
+}
@@ -0,0 +1,15 @@
+public class VmBoundMethod {
+
+    final Object receiver;
+    final VmClosure method;
+
+    VmBoundMethod(Object receiver, VmClosure method) {
+        this.receiver = receiver;
+        this.method = method;
+    }
+
+    @Override
+    public String toString() {
+        return method.toString();
+    }
+}
@@ -0,0 +1,29 @@
+import java.util.HashMap;
+import java.util.Map;
+
+public class VmClass {
+
+    final String name;
+    final Map<String,VmClosure> methods = new HashMap<>();
+    VmClosure initializer;
+
+    VmClass(String name) {
+        this.name = name;
+    }
+
+    void defineMethod(String name, VmClosure method) {
+        methods.put(name,method);
+        if(name.equals("init")) initializer = method;
+    }
+
+    //methods are copied down when the class is created, so lookups never walk the superclass
+    void inherit(VmClass superclass) {
+        methods.putAll(superclass.methods);
+        initializer = superclass.initializer;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
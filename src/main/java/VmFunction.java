@@ -0,0 +1,20 @@
+//a function compiled to bytecode, shared by every closure created from it
+public class VmFunction {
+
+    final String name;
+    int arity = 0;
+    int upvalueCount = 0;
+    //the deepest the operand stack gets inside this function, counting its own slots
+    int maxStack = 0;
+    final Chunk chunk = new Chunk();
+
+    VmFunction(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public String toString() {
+        if(name == null) return "<script>";
+        return "<fn " + name + ">";
+    }
+}
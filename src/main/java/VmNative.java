@@ -0,0 +1,19 @@
+import java.util.function.Function;
+
+public class VmNative {
+
+    final String name;
+    final int arity;
+    final Function<Object[],Object> body;
+
+    VmNative(String name, int arity, Function<Object[],Object> body) {
+        this.name = name;
+        this.arity = arity;
+        this.body = body;
+    }
+
+    @Override
+    public String toString() {
+        return "<native fn>";
+    }
+}
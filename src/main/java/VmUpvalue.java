@@ -0,0 +1,32 @@
+//a captured variable, it points into the VM stack until the variable goes out of scope
+public class VmUpvalue {
+
+    //stack slot of the variable while it is still open
+    final int index;
+    Object closed;
+    boolean isOpen = true;
+    //next open upvalue further down the stack
+    VmUpvalue next;
+
+    VmUpvalue(int index, VmUpvalue next) {
+        this.index = index;
+        this.next = next;
+    }
+
+    Object get(Object[] stack) {
+        return isOpen ? stack[index] : closed;
+    }
+
+    void set(Object[] stack, Object value) {
+        if(isOpen){
+            stack[index] = value;
+        } else {
+            closed = value;
+        }
+    }
+
+    void close(Object[] stack) {
+        closed = stack[index];
+        isOpen = false;
+    }
+}
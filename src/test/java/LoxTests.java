@@ -1,7 +1,15 @@
 import org.testng.Assert;
-import org.testng.annotations.BeforeTest;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Factory;
 import org.testng.annotations.Test;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
 @Test(suiteName = "Compiler Tests")
 public class LoxTests {
 
@@ -27,15 +35,28 @@ public class LoxTests {
     inheritance.
 
      */
+    //the whole suite runs once per execution engine
+    private final LoxRunner.Engine engine;
+
+    @Factory(dataProvider = "engines")
+    public LoxTests(LoxRunner.Engine engine) {
+        this.engine = engine;
+    }
+
+    @DataProvider
+    public static Object[][] engines() {
+        return new Object[][] { { LoxRunner.Engine.TREE_WALKER }, { LoxRunner.Engine.BYTECODE_VM }, { LoxRunner.Engine.JIT } };
+    }
+
     LoxRunner runner = new LoxRunner();
     Lexer lexer = new Lexer("");
     LoxErrorHandler errorHandler = new LoxStdOutErrorHandler();
     PrintHandler printHandler = new StdOutPrintHandler();
-    @BeforeTest(alwaysRun = true)
+    @BeforeMethod(alwaysRun = true)
     public void freshRunnerInstance(){
         errorHandler = new LoxStdOutErrorHandler();
         printHandler = new StdOutPrintHandler();
-        runner = new LoxRunner().withErrorHandler(errorHandler).withPrintHandler(printHandler);
+        runner = new LoxRunner().withErrorHandler(errorHandler).withPrintHandler(printHandler).withEngine(engine).withJitThreshold(0);
 
     }
 
@@ -45,22 +66,22 @@ public class LoxTests {
     }
 
     private void assertErrorsExist(String caseDescription) {
-        Assert.assertFalse(errorHandler.getErrorMessages().isEmpty(),caseDescription + " should contain errors");
+        Assert.assertFalse(errorHandler.getErrorMessages().isEmpty(),caseDescription + " [" + engine + "] should contain errors");
     }
 
     private void assertNoErrors(String caseDescription){
-        Assert.assertTrue(errorHandler.getErrorMessages().isEmpty(),caseDescription + " should not contain errors");
+        Assert.assertTrue(errorHandler.getErrorMessages().isEmpty(),caseDescription + " [" + engine + "] should not contain errors");
     }
 
     private void assertPrintMessagesNonEmpty(String caseDescription){
-        Assert.assertTrue(!printHandler.getStdOutMessages().isEmpty(), caseDescription + " should produce a message");
+        Assert.assertTrue(!printHandler.getStdOutMessages().isEmpty(), caseDescription + " [" + engine + "] should produce a message");
     }
 
     private void assertMessagesExist(String caseDescription,String ...messages){
         //means a mistake was made
         if(messages.length == 0) Assert.fail();
         for(String m: messages){
-            Assert.assertTrue(printHandler.getStdOutMessages().stream().anyMatch(msg->msg.contains(m)),caseDescription + " should contain the messages: " + messages);
+            Assert.assertTrue(printHandler.getStdOutMessages().stream().anyMatch(msg->msg.contains(m)),caseDescription + " [" + engine + "] should contain the messages: " + m);
         }
     }
 
@@ -254,6 +275,551 @@ public class LoxTests {
         assertMessagesExist(caseDescr,"3");
     }
 
+    @Test(testName= "Locals in nested scopes resolve to the right slots")
+    public void testLocalSlots(){
+        String caseDescr = "<Local Slots>";
+        String sourceCode = "fun outer(a, b) {\n" +
+                "  var c = a + b;\n" +
+                "  {\n" +
+                "    var a = c * 10;\n" +
+                "    var d = a + b;\n" +
+                "    c = d;\n" +
+                "  }\n" +
+                "  return c;\n" +
+                "}\n" +
+                "print outer(1, 2);";
+        runSourceCode(sourceCode);
+        assertNoErrors(caseDescr);
+        assertMessagesExist(caseDescr,"32");
+    }
+
+    @Test(testName= "this, init and super resolve properly")
+    public void testThisAndSuper(){
+        String caseDescr = "<This and Super>";
+        String sourceCode = "class A {\n" +
+                "  init(name) { this.name = name; }\n" +
+                "  greet() { return \"Hello \" + this.name; }\n" +
+                "}\n" +
+                "class B < A {\n" +
+                "  greet() { return super.greet() + \"!\"; }\n" +
+                "}\n" +
+                "print B(\"Lox\").greet();";
+        runSourceCode(sourceCode);
+        assertNoErrors(caseDescr);
+        assertMessagesExist(caseDescr,"Hello Lox!");
+    }
+
+    @Test(testName= "Arithmetic chains mix unboxed and dynamic operands")
+    public void testNumericChains(){
+        String caseDescr = "<Numeric Chains>";
+        String sourceCode = "var a = 3;\n" +
+                "var b = 4;\n" +
+                "print a * b + 2 * -(1 - 3);\n" +
+                "print 2 * 3 + \"x\";\n" +
+                "print -(1 - 1);\n" +
+                "print (1 + 2) * 3 < a * b;";
+        runSourceCode(sourceCode);
+        assertNoErrors(caseDescr);
+        assertMessagesExist(caseDescr,"16","6.0x","-0","true");
+
+        //small integer results come out of the shared box cache, the JIT's unboxed chains included
+        List<Stmt> statements = new Parser(new Lexer("var n = 2 * 3 - 1;",errorHandler).scanBuffer(),errorHandler).parse();
+        new Resolver(errorHandler).resolve(statements);
+        Interpreter interpreter = new Interpreter(errorHandler,printHandler);
+        interpreter.jitThreshold = engine == LoxRunner.Engine.JIT ? 0 : -1;
+        Assert.assertTrue(interpreter.interpret(statements),caseDescr);
+        Stmt.Var n = (Stmt.Var) statements.get(0);
+        Assert.assertSame(interpreter.globals.getGlobal(n.globalSlot,n.name),LoxValues.box(5),caseDescr);
+    }
+
+    @Test(testName= "Specialized nodes fall back when the types they saw change")
+    public void testSpecializationFallback(){
+        String caseDescr = "<Specialization Fallback>";
+        String sourceCode = "fun add(a, b) { return a + b; }\n" +
+                "print add(1, 2);\n" +
+                "print add(\"a\", \"b\");\n" +
+                "print add(\"a\", 1);\n" +
+                "fun one(a) { return a; }\n" +
+                "fun two(a, b) { return b; }\n" +
+                "fun callWithOne(f) { return f(1); }\n" +
+                "print callWithOne(one);\n" +
+                "callWithOne(two);";
+        runSourceCode(sourceCode);
+        assertMessagesExist(caseDescr,"3","ab","a1.0","1");
+        assertErrorsExist(caseDescr);
+    }
+
+    @Test(testName= "Property sites see instances of different shapes")
+    public void testPropertyShapes(){
+        String caseDescr = "<Property Shapes>";
+        String sourceCode = "class A {}\n" +
+                "class B {}\n" +
+                "class C { m() { return \"method\"; } }\n" +
+                "fun make(k, xFirst) {\n" +
+                "  var o = k();\n" +
+                "  if (xFirst) { o.x = 1; o.y = 2; } else { o.y = 3; o.x = 4; }\n" +
+                "  return o;\n" +
+                "}\n" +
+                "fun getX(o) { return o.x; }\n" +
+                "print getX(make(A, true)) + getX(make(A, false));\n" +
+                "print getX(make(B, true)) + getX(make(B, false)) + getX(make(C, false));\n" +
+                "var c = C();\n" +
+                "print c.m();\n" +
+                "c.m = \"field\";\n" +
+                "print c.m;";
+        runSourceCode(sourceCode);
+        assertNoErrors(caseDescr);
+        assertMessagesExist(caseDescr,"5","9","method","field");
+
+        //a run's classes bring new shapes, a full site makes room for them instead of missing from then on
+        InlineCache cache = new InlineCache();
+        Token x = new Token(TokenType.IDENTIFIER,"x",null,1);
+        List<LoxClass> classes = new java.util.ArrayList<>();
+        for(int run = 0; run < 6; run++){
+            LoxClass klass = new LoxClass("A",null,java.util.Map.of());
+            LoxInstance instance = new LoxInstance(klass);
+            cache.set(instance,x,(double) run);
+            Assert.assertEquals(cache.get(instance,x),(double) run,caseDescr);
+            classes.add(klass);
+        }
+        Assert.assertFalse(cache.caches(classes.get(0).rootShape),caseDescr);
+        Assert.assertTrue(cache.caches(classes.get(5).rootShape),caseDescr);
+    }
+
+    @Test(testName= "Methods are invoked directly and bound only when they escape")
+    public void testMethodInvocation(){
+        String caseDescr = "<Method Invocation>";
+        String sourceCode = "class Counter {\n" +
+                "  init() { this.count = 0; }\n" +
+                "  inc() { this.count = this.count + 1; return this; }\n" +
+                "}\n" +
+                "var c = Counter();\n" +
+                "c.inc().inc();\n" +
+                "var inc = c.inc;\n" +
+                "inc();\n" +
+                "print c.count;\n" +
+                "fun twice(n) { return n * 2; }\n" +
+                "c.double = twice;\n" +
+                "print c.double(21);\n" +
+                "print c.init() == c;\n" +
+                "print c.count;\n" +
+                "\"str\".length();";
+        runSourceCode(sourceCode);
+        assertMessagesExist(caseDescr,"3","42","true","0");
+        assertErrorsExist(caseDescr);
+    }
+
+    @Test(testName= "Methods and initializers are inherited through several levels")
+    public void testDeepInheritance(){
+        String caseDescr = "<Deep Inheritance>";
+        String sourceCode = "class A {\n" +
+                "  init(x) { this.x = x; }\n" +
+                "  who() { return \"A\"; }\n" +
+                "  value() { return this.x; }\n" +
+                "}\n" +
+                "class B < A { who() { return \"B\" + super.who(); } }\n" +
+                "class C < B {}\n" +
+                "class D < C { who() { return \"D\" + super.who(); } }\n" +
+                "var d = D(7);\n" +
+                "print d.who();\n" +
+                "print d.value();";
+        runSourceCode(sourceCode);
+        assertNoErrors(caseDescr);
+        assertMessagesExist(caseDescr,"DBA","7");
+
+        //the id keyed table is sized by the class's methods, whatever ids the names got
+        List<Stmt> statements = new Parser(new Lexer("fun f() {}",errorHandler).scanBuffer(),errorHandler).parse();
+        new Resolver(errorHandler).resolve(statements);
+        java.util.Map<String,LoxFunction> methods = new java.util.HashMap<>();
+        for(int i = 0; i < 20; i++){
+            methods.put("method" + i,new LoxFunction((Stmt.Function) statements.get(0),Cell.EMPTY,false));
+        }
+        LoxClass klass = new LoxClass("Many",new LoxClass("Base",null,java.util.Map.of()),methods);
+        for(String name: methods.keySet()){
+            Assert.assertSame(klass.findMethod(Names.idOf(name)),methods.get(name),caseDescr);
+        }
+        Assert.assertNull(klass.findMethod(Names.idOf("notAMethod")),caseDescr);
+    }
+
+    @Test(testName= "Return leaves nested loops and blocks")
+    public void testReturnFromNestedStatements(){
+        String caseDescr = "<Nested Returns>";
+        String sourceCode = "fun find(n) {\n" +
+                "  var i = 0;\n" +
+                "  while (true) {\n" +
+                "    { if (i == n) return i * 10; }\n" +
+                "    i = i + 1;\n" +
+                "  }\n" +
+                "}\n" +
+                "print find(4);\n" +
+                "fun early() {\n" +
+                "  if (true) { return; }\n" +
+                "  print \"unreachable\";\n" +
+                "}\n" +
+                "print early();";
+        runSourceCode(sourceCode);
+        assertNoErrors(caseDescr);
+        assertMessagesExist(caseDescr,"40","nil");
+    }
+
+    @Test(testName= "Source files are lexed in place, ASCII or not")
+    public void testRunFromFile() throws IOException {
+        String caseDescr = "<Files>";
+        Path ascii = Files.createTempFile("lox",".jlox");
+        Path unicode = Files.createTempFile("lox",".jlox");
+        try {
+            Files.write(ascii,"var sum = 0.1 + 0.2;\nprint sum;\nprint 12.5 * 2;".getBytes(StandardCharsets.UTF_8));
+            Files.write(unicode,"var greeting = \"h\u00e9llo\";\nprint greeting;".getBytes(StandardCharsets.UTF_8));
+            runner.runJloxFile(ascii.toString());
+            runner.runJloxFile(unicode.toString());
+        } finally {
+            Files.delete(ascii);
+            Files.delete(unicode);
+        }
+        assertNoErrors(caseDescr);
+        assertMessagesExist(caseDescr,"0.30000000000000004","25","h\u00e9llo");
+    }
+
+    @Test(testName= "Identifiers that start like keywords are still identifiers")
+    public void testKeywordPrefixes() {
+        String caseDescr = "<Keywords>";
+        String source = "var classy = 1; var fortune = 2; var o = 3; var thistle = 4; var f = 5; var t = 6;\n" +
+                "var andy = 7; var nile = 8; var printer = 9; var whiles = 10; var tru = 11;\n" +
+                "print classy + fortune + o + thistle + f + t + andy + nile + printer + whiles + tru;\n" +
+                "if (true and !false) print \"keywords\";";
+        runner.run(source);
+        assertNoErrors(caseDescr);
+        assertMessagesExist(caseDescr,"66","keywords");
+    }
+
+    @Test(testName= "Large sources parse in parallel slices with the right lines")
+    public void testParallelParsing() {
+        String caseDescr = "<Parallel>";
+        StringBuilder source = new StringBuilder("var total = 0;\n");
+        for(int i = 0; i < 2000; i++){
+            //braces and keywords inside strings and comments must not start a slice
+            source.append("fun f").append(i).append("(a) { var s = \"} fun {\"; return a + ").append(i).append("; } // class x {\n");
+            source.append("class C").append(i).append(" { get() { return ").append(i).append("; } }\n");
+        }
+        source.append("for (var i = 0; i < 2000; i = i + 500) total = total + f1999(i) + C7().get();\n");
+        source.append("print total;\n");
+        ParallelParser parser = new ParallelParser(source,errorHandler,java.util.concurrent.ForkJoinPool.commonPool());
+        Assert.assertTrue(parser.split(ParallelParser.MIN_SLICE).size() > 1,caseDescr + " should be split");
+        runner.withParallelParsing(true).run(source);
+        assertNoErrors(caseDescr);
+        assertMessagesExist(caseDescr,"11024");
+
+        //an error in a later slice still reports the line it is on in the whole source
+        source.append("fun broken( { }\n");
+        new ParallelParser(source,errorHandler,java.util.concurrent.ForkJoinPool.commonPool()).parse();
+        Assert.assertTrue(errorHandler.getErrorMessages().stream().anyMatch(msg -> msg.contains("line: 4004")),caseDescr + " should report line 4004");
+    }
+
+    @Test(testName= "A token buffer holds the same tokens as the token list, with columns")
+    public void testTokenBuffer() {
+        String caseDescr = "<TokenBuffer>";
+        String source = "var greeting = \"multi\nline\";\n" +
+                "  class Point { init(x) { this.x = x * 2.5; } }\n" +
+                "print Point(4).x; // done\n";
+        List<Token> tokens = new Lexer(source,errorHandler).scanTokens();
+        TokenBuffer buffer = new Lexer(source,errorHandler).scanBuffer();
+        Assert.assertEquals(buffer.size(),tokens.size(),caseDescr);
+        for(int i = 0; i < tokens.size(); i++){
+            Token expected = tokens.get(i);
+            Token actual = buffer.get(i);
+            Assert.assertEquals(actual.type,expected.type,caseDescr);
+            Assert.assertEquals(actual.lexeme(),expected.lexeme(),caseDescr);
+            Assert.assertEquals(actual.literal,expected.literal,caseDescr);
+            Assert.assertEquals(actual.line,expected.line,caseDescr);
+            Assert.assertEquals(actual.column,expected.column,caseDescr);
+        }
+        //"class" is indented two spaces on the third line
+        Assert.assertEquals(tokens.get(5).lexeme(),"class",caseDescr);
+        Assert.assertEquals(tokens.get(5).column,3,caseDescr);
+        Assert.assertEquals(tokens.get(5).line,3,caseDescr);
+
+        List<Stmt> statements = new Parser(buffer,errorHandler).parse();
+        new Resolver(errorHandler).resolve(statements);
+        runner.execute(statements);
+        assertNoErrors(caseDescr);
+        assertMessagesExist(caseDescr,"10");
+    }
+
+    @Test(testName= "Resolved programs are cached on disk and reused")
+    public void testAstCache() throws IOException {
+        String caseDescr = "<AstCache>";
+        String source = "class A { init(n) { this.n = n; } get() { return this.n; } }\n" +
+                "class B < A { get() { return super.get() * 2; } }\n" +
+                "fun counter() { var count = 0; fun next() { count = count + 1; return count; } return next; }\n" +
+                "var next = counter(); next();\n" +
+                "var total = 0; for (var i = 0; i < 3; i = i + 1) { if (!(i == 1) and true or nil) total = total + B(i).get(); else total = -total; }\n" +
+                "print \"cached:\" + total + next() + \"\u00e9\";";
+        Path directory = Files.createTempDirectory("lox-cache");
+        try {
+            runner.withCacheDirectory(directory).run(source);
+            AstCache cache = new AstCache(directory);
+            Path file = cache.fileFor(AstCache.digest(source));
+            Assert.assertTrue(Files.exists(file),caseDescr + " should write a cache file");
+            Assert.assertNotNull(cache.load(source),caseDescr + " should load what it wrote");
+            Assert.assertNull(cache.load(source + " "),caseDescr + " other sources miss");
+
+            //a warm run executes the loaded tree
+            runner.run(source);
+
+            //a truncated file is a miss and gets rewritten
+            byte[] bytes = Files.readAllBytes(file);
+            Files.write(file,java.util.Arrays.copyOf(bytes,bytes.length / 2));
+            Assert.assertNull(cache.load(source),caseDescr + " truncated files miss");
+            runner.run(source);
+            Assert.assertEquals(Files.readAllBytes(file),bytes,caseDescr + " should rewrite the file");
+        } finally {
+            try (java.util.stream.Stream<Path> files = Files.list(directory)) {
+                for(Path file: (Iterable<Path>) files::iterator) Files.delete(file);
+            }
+            Files.delete(directory);
+        }
+        assertNoErrors(caseDescr);
+        Assert.assertEquals(printHandler.getStdOutMessages().stream().filter(msg -> msg.contains("cached:4.02.0\u00e9")).count(),3L,caseDescr);
+    }
+
+    @Test(testName= "A compiled script runs many times on fresh globals")
+    public void testCompiledScript() {
+        String caseDescr = "<CompiledScript>";
+        CompiledScript script = runner.compile("var runs = 0; fun bump() { runs = runs + 1; return runs; } print \"run \" + bump();");
+        Assert.assertTrue(script.run(),caseDescr);
+        Assert.assertTrue(script.run(),caseDescr);
+        StdOutPrintHandler elsewhere = new StdOutPrintHandler();
+        Assert.assertTrue(script.run(elsewhere),caseDescr);
+        assertNoErrors(caseDescr);
+        //every run starts from its own globals, so none of them counts past one
+        Assert.assertEquals(printHandler.getStdOutMessages().stream().filter(msg -> msg.contains("run 1")).count(),2L,caseDescr);
+        Assert.assertTrue(elsewhere.getStdOutMessages().stream().anyMatch(msg -> msg.contains("run 1")),caseDescr);
+
+        //errors are reported and handed back instead of exiting
+        Assert.assertFalse(runner.compile("print nil + 1;").run(),caseDescr);
+        try {
+            runner.compile("print (1;");
+            Assert.fail(caseDescr + " should not compile");
+        } catch (CompileError e) {
+            Assert.assertEquals(e.getErrors().size(),1,caseDescr);
+            Assert.assertTrue(errorHandler.getErrorMessages().contains(e.getErrors().get(0)),caseDescr);
+        }
+    }
+
+    @Test(testName= "Programs that don't parse are rejected before they are resolved")
+    public void testInvalidAssignmentTarget() {
+        String caseDescr = "<Invalid assignment>";
+        try {
+            runner.compile("1 = 2;");
+            Assert.fail(caseDescr + " should not compile");
+        } catch (CompileError e) {
+            Assert.assertEquals(e.getErrors().size(),1,caseDescr + " " + e.getErrors());
+            Assert.assertTrue(e.getErrors().get(0).contains("Invalid assignment target"),caseDescr + " " + e.getErrors());
+        }
+        //run reports it and carries on
+        runSourceCode("var a = 1; a + 1 = 3; print a;");
+        assertErrorsExist(caseDescr);
+        Assert.assertTrue(printHandler.getStdOutMessages().isEmpty(),caseDescr);
+        try {
+            runner.compile("return 1;");
+            Assert.fail(caseDescr + " should not compile");
+        } catch (CompileError e) {
+            Assert.assertTrue(e.getErrors().get(0).contains("Can't return from top-level code"),caseDescr + " " + e.getErrors());
+        }
+    }
+
+    @Test(testName= "One compiled script runs on many threads at once")
+    public void testConcurrentExecution() throws Exception {
+        String caseDescr = "<Concurrent>";
+        CompiledScript script = runner.compile("class Counter { init() { this.count = 0; } add(n) { this.count = this.count + n; return this; } }\n" +
+                "fun total(n) { var c = Counter(); for (var i = 1; i <= n; i = i + 1) c.add(i); return c.count; }\n" +
+                "var label = \"sum\"; print label + \":\" + total(200);");
+        int runs = 24;
+        java.util.List<StdOutPrintHandler> outputs = new java.util.ArrayList<>();
+        java.util.List<LoxStdOutErrorHandler> errors = new java.util.ArrayList<>();
+        java.util.List<java.util.concurrent.CompletableFuture<Boolean>> results = new java.util.ArrayList<>();
+        try (LoxExecutor executor = new LoxExecutor()) {
+            for(int i = 0; i < runs; i++){
+                outputs.add(new StdOutPrintHandler());
+                errors.add(new LoxStdOutErrorHandler());
+                results.add(executor.submit(script,outputs.get(i),errors.get(i)));
+            }
+            for(int i = 0; i < runs; i++){
+                Assert.assertTrue(results.get(i).get(),caseDescr);
+                Assert.assertEquals(outputs.get(i).getStdOutMessages(),java.util.List.of("sum:20100.0"),caseDescr);
+                Assert.assertTrue(errors.get(i).getErrorMessages().isEmpty(),caseDescr);
+                Assert.assertFalse(errors.get(i).hadRuntimeError(),caseDescr);
+            }
+        }
+        assertNoErrors(caseDescr);
+    }
+
+    @Test(testName= "Recursion deeper than the stack stops with a runtime error")
+    public void testStackOverflow() {
+        String caseDescr = "<Stack overflow>";
+        String source = "fun f(n) { if (n == 0) return 0; return 1 + f(n - 1); }\n" +
+                "print f(100);\n" +
+                "print f(1000000);";
+        Assert.assertFalse(runner.compile(source).run(),caseDescr);
+        Assert.assertEquals(printHandler.getStdOutMessages(),List.of("100"),caseDescr);
+        List<String> errors = errorHandler.getErrorMessages();
+        Assert.assertEquals(errors.size(),1,caseDescr + " " + errors);
+        Assert.assertTrue(errors.get(0).startsWith("Stack overflow."),caseDescr + " " + errors);
+        //a depth limit the JVM stack can't reach ends the same way
+        Assert.assertFalse(runner.withCallDepthLimit(2000000).compile(source).run(),caseDescr);
+        Assert.assertTrue(errorHandler.getErrorMessages().get(1).startsWith("Stack overflow."),caseDescr);
+    }
+
+    @Test(testName= "Runs over their budget stop with a runtime error")
+    public void testBudgets() {
+        String caseDescr = "<Budgets>";
+        Assert.assertFalse(runner.withStepLimit(10000).compile("var i = 0; while (true) { i = i + 1; }").run(),caseDescr);
+        Assert.assertFalse(new LoxRunner().withErrorHandler(errorHandler).withPrintHandler(printHandler).withEngine(engine).withJitThreshold(0)
+                .withCallDepthLimit(200).compile("fun down(n) { return down(n + 1); } down(0);").run(),caseDescr);
+        Assert.assertFalse(new LoxRunner().withErrorHandler(errorHandler).withPrintHandler(printHandler).withEngine(engine).withJitThreshold(0)
+                .withAllocationLimit(100).compile("class P {} var s = \"\"; for (var i = 0; i < 60; i = i + 1) { P(); s = s + \"x\"; }").run(),caseDescr);
+        Assert.assertFalse(new LoxRunner().withErrorHandler(errorHandler).withPrintHandler(printHandler).withEngine(engine).withJitThreshold(0)
+                .withTimeLimit(java.time.Duration.ofMillis(50)).compile("while (true) {}").run(),caseDescr);
+        List<String> errors = errorHandler.getErrorMessages();
+        Assert.assertEquals(errors.size(),4,caseDescr + " " + errors);
+        Assert.assertTrue(errors.get(0).startsWith("Step limit of 10000 exceeded."),caseDescr + " " + errors);
+        Assert.assertTrue(errors.get(1).startsWith("Call depth limit of 200 exceeded."),caseDescr + " " + errors);
+        Assert.assertTrue(errors.get(2).startsWith("Allocation limit of 100 exceeded."),caseDescr + " " + errors);
+        Assert.assertTrue(errors.get(3).startsWith("Time limit of 50 ms exceeded."),caseDescr + " " + errors);
+
+        //a script that stays inside its budget runs as usual
+        Assert.assertTrue(runner.compile("var total = 0; for (var i = 0; i < 100; i = i + 1) total = total + i; print total;").run(),caseDescr);
+        assertMessagesExist(caseDescr,"4950");
+    }
+
+    @Test(testName= "Globals are found by slot and bound when their site runs")
+    public void testIndexedGlobals() {
+        String caseDescr = "<Indexed globals>";
+        //show reads a global that is only defined after show itself
+        String source = "fun show() { print later; }\n" +
+                "var later = \"first\";\n" +
+                "show();\n" +
+                "later = \"second\";\n" +
+                "show();\n" +
+                "var later = \"third\";\n" +
+                "show();\n" +
+                "print clock() > 0;";
+        Assert.assertTrue(runner.compile(source).run(),caseDescr);
+        assertMessagesExist(caseDescr,"first","second","third","true");
+
+        Assert.assertFalse(runner.compile("print missing;").run(),caseDescr);
+        Assert.assertFalse(runner.compile("missing = 1;").run(),caseDescr);
+        List<String> errors = errorHandler.getErrorMessages();
+        Assert.assertEquals(errors.size(),2,caseDescr + " " + errors);
+        Assert.assertTrue(errors.get(0).startsWith("Undefined variable 'missing'"),caseDescr + " " + errors);
+        Assert.assertTrue(errors.get(1).startsWith("Undefined variable 'missing'"),caseDescr + " " + errors);
+
+        //every program numbers its globals itself, right after the natives
+        for(String name: List.of("first","second")){
+            List<Stmt> statements = new Parser(new Lexer("var " + name + " = clock;",errorHandler).scanBuffer(),errorHandler).parse();
+            new Resolver(errorHandler).resolve(statements);
+            Stmt.Var var = (Stmt.Var) statements.get(0);
+            Assert.assertEquals(var.globalSlot,Environment.NATIVES.size(),caseDescr);
+            Assert.assertEquals(((Expr.Variable) var.initializer).slot,Environment.NATIVES.indexOf("clock"),caseDescr);
+        }
+    }
+
+    @Test(testName= "Closures capture only the variables they use, in cells they share")
+    public void testClosureConversion() {
+        String caseDescr = "<Closure conversion>";
+        String source = "fun outer(a) {\n" +
+                "  var unused = \"big\";\n" +
+                "  var count = 0;\n" +
+                "  fun inc() { count = count + a; return count; }\n" +
+                "  fun get() { fun inner() { return count; } return inner; }\n" +
+                "  inc();\n" +
+                "  return get();\n" +
+                "}\n" +
+                "print outer(5)();\n" +
+                "class A { init(v) { this.v = v; } hi() { return \"A\" + this.v; } }\n" +
+                "class B < A { hi() { fun s() { return super.hi() + this.v; } return s; } }\n" +
+                "print B(\"x\").hi()();";
+        runSourceCode(source);
+        assertNoErrors(caseDescr);
+        assertMessagesExist(caseDescr,"5","Axx");
+
+        List<Stmt> statements = new Parser(new Lexer(source,errorHandler).scanBuffer(),errorHandler).parse();
+        new Resolver(errorHandler).resolve(statements);
+        Stmt.Function outer = (Stmt.Function) statements.get(0);
+        Stmt.Function inc = (Stmt.Function) outer.body.get(2);
+        Stmt.Function get = (Stmt.Function) outer.body.get(3);
+        Stmt.Function inner = (Stmt.Function) get.body.get(0);
+        //inc captures count and a, get captures count only to hand it to inner
+        Assert.assertEquals(inc.upvalues.size(),2,caseDescr);
+        Assert.assertEquals(get.upvalues.size(),1,caseDescr);
+        Assert.assertFalse(inner.upvalues.get(0).isLocal,caseDescr);
+        Assert.assertEquals(outer.cells.length,1,caseDescr);
+        Assert.assertFalse(((Stmt.Var) outer.body.get(0)).captured,caseDescr);
+        Assert.assertTrue(((Stmt.Var) outer.body.get(1)).captured,caseDescr);
+    }
+
+    @Test(testName= "A call keeps every local of the function in one frame")
+    public void testFunctionFrames() {
+        String caseDescr = "<Function frames>";
+        String source = "fun sum(n) {\n" +
+                "  var total = 0;\n" +
+                "  for (var i = 0; i < n; i = i + 1) { { total = total + i; } { var twice = i * 2; total = total + twice; } }\n" +
+                "  { var first = 1; total = total + first; }\n" +
+                "  { var second = 2; fun add() { total = total + second; } add(); }\n" +
+                "  return total;\n" +
+                "}\n" +
+                "print sum(4);";
+        runSourceCode(source);
+        assertNoErrors(caseDescr);
+        assertMessagesExist(caseDescr,"21");
+
+        List<Stmt> statements = new Parser(new Lexer(source,errorHandler).scanBuffer(),errorHandler).parse();
+        new Resolver(errorHandler).resolve(statements);
+        Stmt.Function sum = (Stmt.Function) statements.get(0);
+        Stmt.Block loop = (Stmt.Block) sum.body.get(1);
+        Stmt.Var first = (Stmt.Var) ((Stmt.Block) sum.body.get(2)).statements.get(0);
+        Stmt.Var second = (Stmt.Var) ((Stmt.Block) sum.body.get(3)).statements.get(0);
+        //this, n, total, i and twice, the blocks after the loop reuse the slots it freed
+        Assert.assertEquals(sum.frameSize,5,caseDescr);
+        Assert.assertEquals(((Stmt.Var) loop.statements.get(0)).slot,3,caseDescr);
+        Assert.assertEquals(first.slot,3,caseDescr);
+        Assert.assertEquals(second.slot,3,caseDescr);
+        //only the variables add uses are kept in cells
+        Assert.assertFalse(first.captured,caseDescr);
+        Assert.assertTrue(second.captured,caseDescr);
+        Assert.assertTrue(((Stmt.Var) sum.body.get(0)).captured,caseDescr);
+    }
+
+    @Test(testName= "Concatenating onto a long string appends to a shared rope")
+    public void testRopeConcatenation() {
+        String caseDescr = "<Rope concatenation>";
+        String source = "var s = \"\";\n" +
+                "for (var i = 0; i < 100; i = i + 1) s = s + \"ab\";\n" +
+                "var t = \"\";\n" +
+                "for (var i = 0; i < 50; i = i + 1) t = t + \"abab\";\n" +
+                "var u = s + \"!\";\n" +
+                "var v = s + \"?\";\n" +
+                "print s == t;\n" +
+                "print u == v;\n" +
+                "print u == t + \"!\";\n" +
+                "print v + 1;";
+        runSourceCode(source);
+        assertNoErrors(caseDescr);
+        Assert.assertEquals(printHandler.getStdOutMessages(),List.of("true","false","true","ab".repeat(100) + "?1.0"),caseDescr);
+
+        //extending a rope never changes the ropes it was built from
+        Object base = LoxValues.add("x".repeat(Rope.MIN_LENGTH),"y");
+        Object first = LoxValues.add(base,"1");
+        Object second = LoxValues.add(base,"2");
+        Assert.assertTrue(base instanceof Rope,caseDescr);
+        Assert.assertEquals(base.toString(),"x".repeat(Rope.MIN_LENGTH) + "y",caseDescr);
+        Assert.assertEquals(first.toString(),base + "1",caseDescr);
+        Assert.assertEquals(second.toString(),base + "2",caseDescr);
+        Assert.assertTrue(LoxValues.isEqual(first,base + "1"),caseDescr);
+        Assert.assertTrue(LoxValues.isEqual(first,LoxValues.add(LoxValues.add("x".repeat(Rope.MIN_LENGTH),"y"),"1")),caseDescr);
+        Assert.assertFalse(LoxValues.isEqual(first,second),caseDescr);
+    }
+
     @Test(testName="Referencing a variable in its initializer produces an error")
     public void testInitRefProducesError() {
         String caseDescr = "Variable Reference edge case";